@@ -0,0 +1,99 @@
+#!/bin/sh
+# Compares the join and nested index layouts (README "Index layouts") on a
+# synthetic dataset: query latency of equivalent searches, index size and
+# the heap they hold.
+#
+#   ./mvnw spring-boot:run -Dspring-boot.run.arguments=--plan.index.layout=both
+#   TOKEN=<google id token> benchmarks/index-layouts.sh
+#
+# Imports PLANS generated plans with SERVICES linked plan services each
+# through /v1/plan/_bulk, waits until both aliases hold them, then runs each
+# query RUNS times against Elasticsearch directly (request cache off) and
+# prints the average and worst 'took'.
+set -e
+
+BASE="${BASE:-http://localhost:8080/v1/plan}"
+ES_URL="${ES_URL:-http://localhost:9200}"
+PLANS="${PLANS:-10000}"
+SERVICES="${SERVICES:-10}"
+RUNS="${RUNS:-50}"
+: "${TOKEN:?set TOKEN to a valid Google ID token}"
+
+DATA="$(mktemp)"
+trap 'rm -f "$DATA"' EXIT
+
+echo "== generating $PLANS plans x $SERVICES services"
+awk -v plans="$PLANS" -v services="$SERVICES" 'BEGIN {
+    srand(42)
+    for (p = 0; p < plans; p++) {
+        id = "layout-" p
+        printf "{\"objectId\":\"%s\",\"objectType\":\"plan\",\"_org\":\"example.com\",", id
+        printf "\"planType\":\"%s\",\"creationDate\":\"12-12-2017\",", (p % 2 ? "inNetwork" : "outOfNetwork")
+        printf "\"planCostShares\":{\"objectId\":\"%s-pcs\",\"objectType\":\"membercostshare\",", id
+        printf "\"_org\":\"example.com\",\"deductible\":%d,\"copay\":%d},", int(rand() * 5000), int(rand() * 200)
+        printf "\"linkedPlanServices\":["
+        for (s = 0; s < services; s++) {
+            sid = id "-" s
+            printf "%s{\"objectId\":\"%s\",\"objectType\":\"planservice\",\"_org\":\"example.com\",", (s ? "," : ""), sid
+            printf "\"linkedService\":{\"objectId\":\"%s-ls\",\"objectType\":\"service\",", sid
+            printf "\"_org\":\"example.com\",\"name\":\"service-%d\"},", int(rand() * 100)
+            printf "\"planserviceCostShares\":{\"objectId\":\"%s-cs\",\"objectType\":\"membercostshare\",", sid
+            printf "\"_org\":\"example.com\",\"deductible\":%d,\"copay\":%d}}", int(rand() * 500), int(rand() * 200)
+        }
+        printf "]}\n"
+    }
+}' > "$DATA"
+
+echo "== importing"
+curl -s -X POST "$BASE/_bulk" -H "Authorization: Bearer $TOKEN" \
+     -H "Content-Type: application/x-ndjson" --data-binary @"$DATA" | tail -n 1
+
+count() {
+    curl -s "$ES_URL/$1/_count?q=objectType:plan" | sed -n 's/.*"count":\([0-9]*\).*/\1/p'
+}
+until [ "$(count plans)" -ge "$PLANS" ] 2>/dev/null && [ "$(count plans_nested)" -ge "$PLANS" ] 2>/dev/null; do
+    echo "   waiting for indexing: plans $(count plans), plans_nested $(count plans_nested)"
+    sleep 5
+done
+curl -s -o /dev/null -X POST "$ES_URL/plans,plans_nested/_refresh"
+
+# query <label> <index> <body>
+query() {
+    total=0; worst=0
+    i=0
+    while [ "$i" -lt "$RUNS" ]; do
+        took=$(curl -s "$ES_URL/$2/_search?request_cache=false&size=10" \
+            -H "Content-Type: application/json" -d "$3" | sed -n 's/^{"took":\([0-9]*\).*/\1/p')
+        total=$((total + took))
+        [ "$took" -gt "$worst" ] && worst=$took
+        i=$((i + 1))
+    done
+    printf '%-40s avg %4d ms   max %4d ms\n' "$1" $((total / RUNS)) "$worst"
+}
+
+echo "== query latency ($RUNS runs each)"
+query "join:   plan cost share copay <= 50" plans \
+    '{"query":{"has_child":{"type":"planCostShares","query":{"range":{"copay":{"lte":50}}}}}}'
+query "nested: plan cost share copay <= 50" plans_nested \
+    '{"query":{"range":{"planCostShares.copay":{"lte":50}}}}'
+query "join:   service name + its copay" plans \
+    '{"query":{"has_child":{"type":"linkedPlanServices","query":{"bool":{"filter":[
+        {"has_child":{"type":"linkedService","query":{"term":{"name":"service-7"}}}},
+        {"has_child":{"type":"planserviceCostShares","query":{"range":{"copay":{"lte":20}}}}}]}}}}}'
+query "nested: service name + its copay" plans_nested \
+    '{"query":{"nested":{"path":"linkedPlanServices","query":{"bool":{"filter":[
+        {"term":{"linkedPlanServices.linkedService.name":"service-7"}},
+        {"range":{"linkedPlanServices.planserviceCostShares.copay":{"lte":20}}}]}}}}}'
+
+echo "== size (Lucene docs include nested objects)"
+curl -s "$ES_URL/_cat/indices/plans*?v&h=index,docs.count,store.size,segments.count,segments.memory"
+
+echo "== heap: field data / global ordinals (the join field loads them eagerly)"
+curl -s "$ES_URL/_cat/fielddata?v&h=node,field,size"
+for index in plans plans_nested; do
+    printf '%-13s ' "$index"
+    curl -s "$ES_URL/$index/_stats/fielddata,segments" \
+        | sed -n 's/.*"total":{"fielddata":{"memory_size_in_bytes":\([0-9]*\).*"segments":{"count":[0-9]*,"memory_in_bytes":\([0-9]*\).*/fielddata \1 bytes, segments \2 bytes/p'
+done
+echo "== JVM heap used per node"
+curl -s "$ES_URL/_cat/nodes?v&h=name,heap.current,heap.percent"
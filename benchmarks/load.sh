@@ -0,0 +1,43 @@
+#!/bin/sh
+# High-concurrency load test of GET /v1/plan/{id} against a running
+# instance, to compare the servlet stack with the "reactive" profile:
+#
+#   ./mvnw spring-boot:run                                          # servlet
+#   ./mvnw spring-boot:run -Dspring-boot.run.profiles=reactive      # WebFlux
+#   TOKEN=<google id token> benchmarks/load.sh
+#
+# Needs wrk (https://github.com/wg/wrk). Creates the plan if missing, then
+# runs plain, gzip (Accept-Encoding) and conditional (If-None-Match) reads.
+# With redis-cli on the PATH it also prints the Redis memory of the plan,
+# e.g. to compare plan.storage.layout=blob and gzip.
+set -e
+cd "$(dirname "$0")"
+
+BASE="${BASE:-http://localhost:8080/v1/plan}"
+PLAN_ID="${PLAN_ID:-12xvxc345ssdsds-508}"
+CONNECTIONS="${CONNECTIONS:-1000}"
+THREADS="${THREADS:-8}"
+DURATION="${DURATION:-60s}"
+: "${TOKEN:?set TOKEN to a valid Google ID token}"
+
+curl -s -o /dev/null -X POST "$BASE" -H "Authorization: Bearer $TOKEN" \
+     -H "Content-Type: application/json" --data-binary @load/plan.json || true
+ETAG=$(curl -s -D - -o /dev/null "$BASE/$PLAN_ID" -H "Authorization: Bearer $TOKEN" \
+     | tr -d '\r' | sed -n 's/^[Ee][Tt][Aa][Gg]: //p')
+
+echo "== GET $BASE/$PLAN_ID, $CONNECTIONS connections"
+wrk -t"$THREADS" -c"$CONNECTIONS" -d"$DURATION" --latency \
+    -H "Authorization: Bearer $TOKEN" "$BASE/$PLAN_ID"
+
+echo "== GET, Accept-Encoding: gzip"
+wrk -t"$THREADS" -c"$CONNECTIONS" -d"$DURATION" --latency \
+    -H "Authorization: Bearer $TOKEN" -H "Accept-Encoding: gzip" "$BASE/$PLAN_ID"
+
+echo "== conditional GET (304)"
+wrk -t"$THREADS" -c"$CONNECTIONS" -d"$DURATION" --latency \
+    -H "Authorization: Bearer $TOKEN" -H "If-None-Match: $ETAG" "$BASE/$PLAN_ID"
+
+if command -v redis-cli >/dev/null 2>&1; then
+    echo "== Redis memory of plan:$PLAN_ID (bytes)"
+    redis-cli ${REDIS_URL:+-u "$REDIS_URL"} MEMORY USAGE "plan:$PLAN_ID"
+fi
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Builds the application and the benchmark jar, runs every benchmark and
+# writes the results as JSON (default: benchmarks/target/jmh-results.json).
+#
+#   benchmarks/run.sh                      # everything
+#   benchmarks/run.sh Merge -p services=1000  # any extra JMH arguments
+set -e
+cd "$(dirname "$0")/.."
+
+./mvnw -q -B install -DskipTests
+./mvnw -q -B -f benchmarks/pom.xml package
+
+RESULTS="${RESULTS:-benchmarks/target/jmh-results.json}"
+java -jar benchmarks/target/benchmarks.jar -prof gc -rf json -rff "$RESULTS" "$@"
+echo "Results written to $RESULTS"
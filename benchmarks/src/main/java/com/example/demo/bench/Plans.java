@@ -0,0 +1,80 @@
+package com.example.demo.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Synthetic plans shaped like the use-case document, with a configurable
+ * number of linkedPlanServices.
+ */
+public final class Plans {
+
+    private Plans() {}
+
+    public static JSONObject plan(String planId, int services) {
+        JSONObject plan = new JSONObject();
+        plan.put("planCostShares", costShare(planId + "-pcs", 2000, 23));
+        plan.put("linkedPlanServices", services(planId, 0, services));
+        plan.put("_org", "example.com");
+        plan.put("objectId", planId);
+        plan.put("objectType", "plan");
+        plan.put("planType", "inNetwork");
+        plan.put("creationDate", "12-12-2017");
+        return plan;
+    }
+
+    /** Services [from, from + count) of 'planId'. */
+    public static JSONArray services(String planId, int from, int count) {
+        JSONArray arr = new JSONArray();
+        for (int i = from; i < from + count; i++) {
+            arr.put(service(planId + "-lps-" + i, i));
+        }
+        return arr;
+    }
+
+    public static JSONObject service(String id, int n) {
+        JSONObject linkedService = new JSONObject();
+        linkedService.put("_org", "example.com");
+        linkedService.put("objectId", id + "-ls");
+        linkedService.put("objectType", "service");
+        linkedService.put("name", "Service " + n);
+
+        JSONObject svc = new JSONObject();
+        svc.put("linkedService", linkedService);
+        svc.put("planserviceCostShares", costShare(id + "-pscs", 10 + n, n % 50));
+        svc.put("_org", "example.com");
+        svc.put("objectId", id);
+        svc.put("objectType", "planservice");
+        return svc;
+    }
+
+    public static JSONObject costShare(String id, int deductible, int copay) {
+        JSONObject cs = new JSONObject();
+        cs.put("deductible", deductible);
+        cs.put("_org", "example.com");
+        cs.put("copay", copay);
+        cs.put("objectId", id);
+        cs.put("objectType", "membercostshare");
+        return cs;
+    }
+
+    /**
+     * A PATCH body touching half of the existing services (new copay) and
+     * adding as many new ones.
+     */
+    public static JSONObject patch(String planId, int services) {
+        JSONArray arr = new JSONArray();
+        for (int i = 0; i < services; i += 2) {
+            JSONObject svc = service(planId + "-lps-" + i, i);
+            svc.getJSONObject("planserviceCostShares").put("copay", 99);
+            arr.put(svc);
+        }
+        JSONArray added = services(planId, services, Math.max(1, services / 2));
+        for (int i = 0; i < added.length(); i++) {
+            arr.put(added.get(i));
+        }
+        JSONObject patch = new JSONObject();
+        patch.put("linkedPlanServices", arr);
+        return patch;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.demo.elastic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.example.demo.bench.Plans;
+import com.example.demo.metrics.PlanMetrics;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Building the bulk operations for one plan tree in the join and nested
+ * layouts; the Elasticsearch client is never called.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexDocumentsBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private JsonNode plan;
+    private PlanIndexer indexer;
+
+    @Setup
+    public void setup() throws Exception {
+        plan = new ObjectMapper().readTree(Plans.plan("bench-plan", services).toString());
+        indexer = new PlanIndexer(null, new IndexLayout("join"), new PlanMetrics(new SimpleMeterRegistry()),
+            1000, 5 * 1024 * 1024, 3, 100);
+    }
+
+    @Benchmark
+    public List<PlanIndexer.PendingOp> buildOperations() throws Exception {
+        List<PlanIndexer.PendingOp> ops = new ArrayList<>();
+        indexer.addPlanOperations(PlanDelta.full(plan), ops);
+        return ops;
+    }
+
+    @Benchmark
+    public List<PlanIndexer.PendingOp> buildNestedOperation() throws Exception {
+        List<PlanIndexer.PendingOp> ops = new ArrayList<>();
+        indexer.addNestedOperation(IndexLayout.NESTED_INDEX, plan, ops);
+        return ops;
+    }
+}
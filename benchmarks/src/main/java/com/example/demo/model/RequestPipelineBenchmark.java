@@ -0,0 +1,91 @@
+package com.example.demo.model;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.demo.bench.Plans;
+import com.example.demo.patch.JsonMerger;
+import com.example.demo.rabbitmq.PlanMessageCodec;
+import com.example.demo.service.ETags;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Work a POST and a PATCH do on the document between the request body and
+ * the change message, before and after the document was parsed once per
+ * request. Compare gc.alloc.rate.norm (bytes per operation, from -prof gc)
+ * of each legacy / current pair.
+ *
+ * Schema validation and the merge itself run on a parsed tree in both
+ * versions, cost the same and are left out; both sides write the same JSON
+ * envelope.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestPipelineBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private String planJson;
+    private String patchJson;
+    private final JsonMerger merger = new JsonMerger();
+    private final PlanMessageCodec codec = new PlanMessageCodec("json", Integer.MAX_VALUE);
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Setup
+    public void setup() {
+        planJson = Plans.plan("bench-plan", services).toString();
+        patchJson = Plans.patch("bench-plan", services).toString();
+    }
+
+    /** POST before: parse to validate, parse for the objectId, MD5, readTree + write the envelope. */
+    @Benchmark
+    public void legacyCreate(Blackhole bh) throws Exception {
+        bh.consume(new JSONObject(planJson));
+        bh.consume(new JSONObject(planJson).optString("objectId", null));
+        bh.consume(ETags.of(planJson));
+        bh.consume(legacyEnvelope("create", planJson));
+    }
+
+    /** POST now: one parse shared by validation and id, the body embedded verbatim. */
+    @Benchmark
+    public void create(Blackhole bh) throws Exception {
+        PlanDocument plan = PlanDocument.parse(planJson);
+        bh.consume(plan.tree());
+        bh.consume(plan.objectId());
+        bh.consume(plan.eTag());
+        bh.consume(codec.envelope("create", 0, plan.json(), null));
+    }
+
+    /** PATCH before: deepMerge parsed and serialized, validation parsed the result again. */
+    @Benchmark
+    public void legacyUpdate(Blackhole bh) throws Exception {
+        String merged = merger.mergeById(new JSONObject(planJson), new JSONObject(patchJson)).toString();
+        bh.consume(new JSONObject(merged));
+        bh.consume(ETags.of(merged));
+        bh.consume(legacyEnvelope("update", merged));
+    }
+
+    /** PATCH now: the merged tree is validated as is and serialized once. */
+    @Benchmark
+    public void update(Blackhole bh) throws Exception {
+        PlanDocument previous = PlanDocument.parse(planJson);
+        PlanDocument merged = PlanDocument.of(merger.mergeById(previous.tree(), new JSONObject(patchJson)));
+        bh.consume(merged.tree());
+        bh.consume(merged.eTag());
+        bh.consume(codec.envelope("update", 0, merged.json(), null));
+    }
+
+    // the former PlanMessagePublisher.send
+    private String legacyEnvelope(String operation, String json) throws Exception {
+        return mapper.writeValueAsString(Map.of("operation", operation, "data", mapper.readTree(json)));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.demo.patch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import com.example.demo.bench.Plans;
+import com.example.demo.model.PlanDiff;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private String planJson;
+    private String patchJson;
+    private JSONObject plan;
+    private JSONObject patch;
+    private JSONObject merged;
+    private final JsonMerger merger = new JsonMerger();
+
+    @Setup
+    public void setup() {
+        plan = Plans.plan("bench-plan", services);
+        patch = Plans.patch("bench-plan", services);
+        planJson = plan.toString();
+        patchJson = patch.toString();
+        merged = merger.mergeById(plan, patch);
+    }
+
+    // Both merges get the same input (stored plan and PATCH body as text)
+    // and produce the same output (the merged plan as text), so their times
+    // and gc.alloc.rate.norm compare directly.
+
+    /** Hash-indexed merge: parse both, merge, serialize. */
+    @Benchmark
+    public String mergeById() {
+        return merger.mergeById(new JSONObject(planJson), new JSONObject(patchJson)).toString();
+    }
+
+    /** The former PlanController.deepMerge: parse both, nested-loop merge, serialize. */
+    @Benchmark
+    public String legacyDeepMerge() {
+        return legacyMergeObjects(new JSONObject(planJson), new JSONObject(patchJson)).toString();
+    }
+
+    /**
+     * The merge step alone, on trees parsed in setup. mergeById leaves its
+     * inputs untouched; the legacy merge modifies its source, so it has no
+     * such variant.
+     */
+    @Benchmark
+    public JSONObject mergeByIdParsed() {
+        return merger.mergeById(plan, patch);
+    }
+
+    @Benchmark
+    public PlanDiff diff() {
+        return PlanDiff.between(plan, merged);
+    }
+
+    // copied from PlanController before the merge engine replaced it
+    private static JSONObject legacyMergeObjects(JSONObject source, JSONObject update) {
+        for (String key : update.keySet()) {
+            Object value = update.get(key);
+            if (value instanceof JSONObject) {
+                JSONObject subSrc = source.optJSONObject(key);
+                source.put(key, subSrc == null ? value : legacyMergeObjects(subSrc, (JSONObject) value));
+            } else if (value instanceof JSONArray && "linkedPlanServices".equals(key)
+                       && source.optJSONArray(key) != null) {
+                JSONArray sourceArr = source.getJSONArray(key);
+                JSONArray patchArr = (JSONArray) value;
+                for (int i = 0; i < patchArr.length(); i++) {
+                    JSONObject newItem = patchArr.getJSONObject(i);
+                    String newId = newItem.optString("objectId");
+                    boolean exists = false;
+                    for (int j = 0; j < sourceArr.length(); j++) {
+                        if (sourceArr.getJSONObject(j).optString("objectId").equals(newId)) {
+                            exists = true;
+                            break;
+                        }
+                    }
+                    if (!exists) {
+                        sourceArr.put(newItem);
+                    }
+                }
+            } else {
+                source.put(key, value);
+            }
+        }
+        return source;
+    }
+}
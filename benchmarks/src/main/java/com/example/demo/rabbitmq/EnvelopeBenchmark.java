@@ -0,0 +1,67 @@
+package com.example.demo.rabbitmq;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.amqp.core.Message;
+
+import com.example.demo.bench.Plans;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private String planJson;
+    private PlanMessageCodec smile;
+    private PlanMessageCodec json;
+    private Message smileMessage;
+    private Message jsonMessage;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Setup
+    public void setup() {
+        planJson = Plans.plan("bench-plan", services).toString();
+        smile = new PlanMessageCodec("smile", 4096);
+        json = new PlanMessageCodec("json", 4096);
+        smileMessage = smile.encode("update", "bench-plan", 1, 0, planJson, null);
+        jsonMessage = json.encode("update", "bench-plan", 1, 0, planJson, null);
+        System.out.println("\nmessage bytes: smile " + smileMessage.getBody().length
+            + ", json " + jsonMessage.getBody().length);
+    }
+
+    @Benchmark
+    public Message encodeSmile() {
+        return smile.encode("update", "bench-plan", 1, 0, planJson, null);
+    }
+
+    /** plan.messages.format=json: the JSON envelope of the previous release. */
+    @Benchmark
+    public Message encodeJson() {
+        return json.encode("update", "bench-plan", 1, 0, planJson, null);
+    }
+
+    @Benchmark
+    public PlanMessageCodec.Event decodeSmile() throws Exception {
+        return smile.decode(smileMessage);
+    }
+
+    @Benchmark
+    public PlanMessageCodec.Event decodeJson() throws Exception {
+        return smile.decode(jsonMessage);
+    }
+
+    /** The original send(): readTree the plan, then serialize the wrapper. */
+    @Benchmark
+    public String legacyEnvelope() throws Exception {
+        return mapper.writeValueAsString(Map.of("operation", "update", "data", mapper.readTree(planJson)));
+    }
+}
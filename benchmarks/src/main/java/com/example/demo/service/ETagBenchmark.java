@@ -0,0 +1,31 @@
+package com.example.demo.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.example.demo.bench.Plans;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ETagBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private String planJson;
+
+    @Setup
+    public void setup() {
+        planJson = Plans.plan("bench-plan", services).toString();
+    }
+
+    @Benchmark
+    public String generateETag() {
+        return ETags.of(planJson);
+    }
+}
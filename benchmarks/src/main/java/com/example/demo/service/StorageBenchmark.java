@@ -0,0 +1,52 @@
+package com.example.demo.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.example.demo.bench.Plans;
+
+/**
+ * Cost of plan.storage.layout=gzip per write (compress) and per GET from a
+ * client without gzip support (inflate); clients accepting gzip cost neither.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private String planJson;
+    private byte[] compressed;
+    private final GzipPlanStore store = new GzipPlanStore();
+
+    @Setup
+    public void setup() {
+        planJson = Plans.plan("bench-plan", services).toString();
+        compressed = GzipPlanStore.compress(planJson);
+        System.out.println("\nstored bytes: blob " + planJson.getBytes(StandardCharsets.UTF_8).length
+            + ", gzip " + compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return GzipPlanStore.compress(planJson);
+    }
+
+    @Benchmark
+    public String inflate() {
+        return store.decode(compressed);
+    }
+
+    /** What the blob layout does on every GET: bytes to String. */
+    @Benchmark
+    public String decodeBlob() {
+        return new String(planJson.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.demo.validation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import com.example.demo.bench.Plans;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaValidationBenchmark {
+
+    @Param({"1", "50", "1000"})
+    int services;
+
+    private JSONObject plan;
+    private PlanSchemaValidator compiled;
+    private Schema everit;
+
+    @Setup
+    public void setup() {
+        plan = Plans.plan("bench-plan", services);
+        compiled = new PlanSchemaValidator();
+        everit = SchemaLoader.load(compiled.rawSchema());
+    }
+
+    @Benchmark
+    public void compiled() {
+        compiled.validate(plan);
+    }
+
+    @Benchmark
+    public void everit() {
+        everit.validate(plan);
+    }
+}
@@ -1,104 +1,61 @@
 package com.example.demo.controller;
 
+import com.example.demo.elastic.PlanReindexer;
+import com.example.demo.elastic.PlanSearch;
+import com.example.demo.elastic.SearchException;
+import com.example.demo.metrics.PlanMetrics;
+import com.example.demo.model.PlanDocument;
+import com.example.demo.patch.JsonMerger;
 import com.example.demo.security.GoogleTokenVerifier;
+import com.example.demo.service.ETags;
+import com.example.demo.service.PlanExporter;
+import com.example.demo.service.PlanImporter;
 import com.example.demo.service.PlanService;
-import org.everit.json.schema.Schema;
-import org.everit.json.schema.loader.SchemaLoader;
+import com.example.demo.validation.PlanSchemaValidator;
+import jakarta.servlet.http.HttpServletRequest;
 import org.json.*;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HexFormat;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/v1/plan")
+@Profile("!reactive")
 public class PlanController {
 
     private final PlanService planService;
-    private final Schema jsonSchema;
-
-    public PlanController(PlanService planService) {
+    private final GoogleTokenVerifier tokenVerifier;
+    private final JsonMerger merger;
+    private final PlanSchemaValidator jsonSchema;
+    private final PlanSearch planSearch;
+    private final PlanImporter importer;
+    private final PlanExporter exporter;
+    private final PlanMetrics metrics;
+    private final PlanReindexer reindexer;
+
+    public PlanController(PlanService planService, GoogleTokenVerifier tokenVerifier, JsonMerger merger,
+                          PlanSchemaValidator jsonSchema, PlanSearch planSearch, PlanImporter importer,
+                          PlanExporter exporter, PlanMetrics metrics, PlanReindexer reindexer) {
         this.planService = planService;
-
-        // JSON Schema (same as Demo One):
-        String schemaString = """
-        {
-          "$schema": "http://json-schema.org/draft-07/schema#",
-          "type": "object",
-          "properties": {
-            "planCostShares": {
-              "type": "object",
-              "properties": {
-                "deductible": { "type": "number" },
-                "_org":       { "type": "string" },
-                "copay":      { "type": "number" },
-                "objectId":   { "type": "string" },
-                "objectType": { "type": "string" }
-              },
-              "required": ["deductible", "_org", "copay", "objectId", "objectType"],
-              "additionalProperties": false
-            },
-            "linkedPlanServices": {
-              "type": "array",
-              "items": {
-                "type": "object",
-                "properties": {
-                  "linkedService": {
-                    "type": "object",
-                    "properties": {
-                      "_org":       { "type": "string" },
-                      "objectId":   { "type": "string" },
-                      "objectType": { "type": "string" },
-                      "name":       { "type": "string" }
-                    },
-                    "required": ["_org", "objectId", "objectType", "name"],
-                    "additionalProperties": false
-                  },
-                  "planserviceCostShares": {
-                    "type": "object",
-                    "properties": {
-                      "deductible": { "type": "number" },
-                      "_org":       { "type": "string" },
-                      "copay":      { "type": "number" },
-                      "objectId":   { "type": "string" },
-                      "objectType": { "type": "string" }
-                    },
-                    "required": ["deductible", "_org", "copay", "objectId", "objectType"],
-                    "additionalProperties": false
-                  },
-                  "_org":       { "type": "string" },
-                  "objectId":   { "type": "string" },
-                  "objectType": { "type": "string" }
-                },
-                "required": ["linkedService", "planserviceCostShares", "_org", "objectId", "objectType"],
-                "additionalProperties": false
-              }
-            },
-            "_org":       { "type": "string" },
-            "objectId":   { "type": "string" },
-            "objectType": { "type": "string" },
-            "planType":   { "type": "string" },
-            "creationDate": { "type": "string" }
-          },
-          "required": [
-            "planCostShares",
-            "linkedPlanServices",
-            "_org",
-            "objectId",
-            "objectType",
-            "planType",
-            "creationDate"
-          ],
-          "additionalProperties": false
-        }
-        """;
-
-        // Compile the schema
-        JSONObject rawSchema = new JSONObject(new JSONTokener(schemaString));
-        this.jsonSchema = SchemaLoader.load(rawSchema);
+        this.tokenVerifier = tokenVerifier;
+        this.merger = merger;
+        this.jsonSchema = jsonSchema;
+        this.planSearch = planSearch;
+        this.importer = importer;
+        this.exporter = exporter;
+        this.metrics = metrics;
+        this.reindexer = reindexer;
     }
 
     // ==========================
@@ -111,25 +68,25 @@ public class PlanController {
     ) {
         // 1. Validate Bearer token
         try {
-            GoogleTokenVerifier.verifyToken(authHeader);
+            verifyToken(authHeader);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                                  .body("Invalid token: " + ex.getMessage());
         }
 
-        // 2. Validate JSON with schema
+        // 2. Parse once, validate JSON with schema
+        PlanDocument plan;
         try {
-            JSONObject jsonObj = new JSONObject(planJson);
-            jsonSchema.validate(jsonObj);
+            plan = PlanDocument.parse(planJson);
+            validate(plan);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                                  .body("Invalid request body: " + e.getMessage());
         }
 
         // 3. Extract objectId
-        JSONObject planObj = new JSONObject(planJson);
-        String objectId = planObj.optString("objectId", null);
-        if (objectId == null || objectId.isBlank()) {
+        String objectId = plan.objectId();
+        if (objectId == null) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                                  .body("Missing or empty 'objectId'.");
         }
@@ -140,12 +97,8 @@ public class PlanController {
                                  .body("Plan with objectId '" + objectId + "' already exists.");
         }
 
-        // 5. Save
-//        planService.save(objectId, planJson);
-        planService.save(objectId, planJson, true); 
-
-        // 6. ETag
-        String eTag = generateETag(planJson);
+        // 5. Save (returns the ETag stored with the document)
+        String eTag = planService.save(plan, true);
 
         return ResponseEntity.status(HttpStatus.CREATED)
                              .eTag(eTag)
@@ -159,31 +112,64 @@ public class PlanController {
     public ResponseEntity<?> getPlan(
        @PathVariable String objectId,
        @RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+       @RequestHeader(value="Accept-Encoding", required=false) String acceptEncoding,
        @RequestHeader(value="Authorization", required=false) String authHeader
     ) {
         // 1. Verify token
         try {
-            GoogleTokenVerifier.verifyToken(authHeader);
+            verifyToken(authHeader);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                                  .body("Invalid token: " + ex.getMessage());
         }
 
-        // 2. Fetch from Redis
-        String planJson = planService.get(objectId);
-        if (planJson == null) {
+        // 2. ETag check against the stored metadata only
+        String eTag = planService.getETag(objectId);
+        if (eTag == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                                  .body("Plan not found for objectId: " + objectId);
         }
+        // the gzip representation has its own ETag; a 304 repeats the one the client holds
+        if (ETags.matchesEither(ifNoneMatch, eTag)) {
+            ResponseEntity.HeadersBuilder<?> notModified = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(ETags.matches(ifNoneMatch, eTag) ? eTag : ETags.gzip(eTag));
+            if (planService.storesGzip()) {
+                notModified.varyBy(HttpHeaders.ACCEPT_ENCODING);
+            }
+            return notModified.build();
+        }
+
+        // 3. Compressed storage: send the stored gzip bytes as they are
+        if (planService.storesGzip() && acceptsGzip(acceptEncoding)) {
+            PlanService.RawPlan raw = planService.getRaw(objectId);
+            if (raw == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                                     .body("Plan not found for objectId: " + objectId);
+            }
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+            if (raw.gzip()) {
+                ok.eTag(ETags.gzip(raw.eTag())).header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            } else {
+                ok.eTag(raw.eTag());   // written before compression, sent as plain JSON
+            }
+            return ok.body(raw.bytes());
+        }
 
-        // 3. ETag check
-        String eTag = generateETag(planJson);
-        if (ifNoneMatch != null && ifNoneMatch.equals(eTag)) {
-            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        // 4. Fetch from Redis
+        PlanService.StoredPlan plan = planService.getWithETag(objectId);
+        if (plan == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                                 .body("Plan not found for objectId: " + objectId);
         }
 
-        // 4. Return
-        return ResponseEntity.ok().eTag(eTag).body(planJson);
+        // 5. Return
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().eTag(plan.eTag());
+        if (planService.storesGzip()) {
+            ok.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        return ok.body(plan.json());
     }
 
     // ==========================
@@ -194,38 +180,49 @@ public class PlanController {
         @PathVariable String objectId,
         @RequestBody String patchJson,
         @RequestHeader(value="If-Match", required=false) String ifMatch,
+        @RequestHeader(value="Content-Type", required=false) String contentType,
         @RequestHeader(value="Authorization", required=false) String authHeader
     ) {
         // 1. Token check
         try {
-            GoogleTokenVerifier.verifyToken(authHeader);
+            verifyToken(authHeader);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                                  .body("Invalid token: " + ex.getMessage());
         }
 
-        // 2. Get existing data
-        String existing = planService.get(objectId);
-        if (existing == null) {
+        // 2. Existence + If-Match, decided from the stored ETag only
+        String currentEtag = planService.getETag(objectId);
+        if (currentEtag == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                                  .body("No plan found for objectId: " + objectId);
         }
-
-        // 3. If-Match
         if (ifMatch == null) {
             return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
                                  .body("If-Match header is required for PATCH");
         }
-        String currentEtag = generateETag(existing);
-        if (!ifMatch.equals(currentEtag)) {
+        if (!ETags.matchesEither(ifMatch, currentEtag)) {
             return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
                                  .body("ETag mismatch: resource changed");
         }
 
-        // 4. Merge
-        String merged;
+        // 3. Get existing data
+        PlanService.StoredPlan stored = planService.getWithETag(objectId);
+        if (stored == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                                 .body("No plan found for objectId: " + objectId);
+        }
+        if (!stored.eTag().equals(currentEtag)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                                 .body("ETag mismatch: resource changed");
+        }
+
+        // 4. Merge (JSON, merge-patch or json-patch); the previous version stays untouched
+        PlanDocument previous = PlanDocument.parse(stored.json());
+        PlanDocument merged;
         try {
-            merged = deepMerge(existing, patchJson);
+            merged = metrics.stage("merge",
+                () -> PlanDocument.of(merger.apply(previous.tree(), patchJson, contentType)));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                                  .body("Error merging JSON: " + e.getMessage());
@@ -233,19 +230,22 @@ public class PlanController {
 
         // 5. Validate
         try {
-            JSONObject mergedObj = new JSONObject(merged);
-            jsonSchema.validate(mergedObj);
+            validate(merged);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                                  .body("Validation error after merge: " + e.getMessage());
         }
+        if (!objectId.equals(merged.objectId())) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                                 .body("PATCH must not change 'objectId'.");
+        }
 
-        // 6. Save
-//        planService.save(objectId, merged);
-        planService.save(objectId, merged, false); 
-
-        // 7. new ETag
-        String newEtag = generateETag(merged);
+        // 6. Save only if still at the version merged from (returns the new ETag)
+        String newEtag = planService.saveIfMatch(merged, previous, stored.eTag());
+        if (newEtag == null) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                                 .body("ETag mismatch: resource changed");
+        }
         return ResponseEntity.ok().eTag(newEtag).body("Plan updated successfully");
     }
 
@@ -259,7 +259,7 @@ public class PlanController {
     ) {
         // 1. Token check
         try {
-            GoogleTokenVerifier.verifyToken(authHeader);
+            verifyToken(authHeader);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                                  .body("Invalid token: " + ex.getMessage());
@@ -275,98 +275,236 @@ public class PlanController {
     }
 
     // ==========================
-    //  GET ALL KEYS (DEBUG)
+    //  LIST KEYS (SCAN)
     // ==========================
+    // Without a cursor: streams every plan id as a JSON array, one SCAN step at a time.
     @GetMapping("/keys")
-    public ResponseEntity<?> listAllKeys(
+    public ResponseEntity<StreamingResponseBody> listAllKeys(
+        @RequestParam(value="count", defaultValue="1000") int count,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        try {
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            String message = "Invalid token: " + ex.getMessage();
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        StreamingResponseBody body = out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write('[');
+            boolean[] first = {true};
+            planService.forEachKeyPage(count, ids -> {
+                try {
+                    for (String id : ids) {
+                        if (!first[0]) {
+                            writer.write(',');
+                        }
+                        writer.write(JSONObject.quote(id));
+                        first[0] = false;
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.write(']');
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // With a cursor ("0" to start): one SCAN step, plus the cursor for the next page.
+    @GetMapping(value="/keys", params="cursor")
+    public ResponseEntity<?> listKeysPage(
+        @RequestParam("cursor") String cursor,
+        @RequestParam(value="count", defaultValue="100") int count,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        try {
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body("Invalid token: " + ex.getMessage());
+        }
+
+        PlanService.KeyPage page = planService.scanKeys(cursor, count);
+        return ResponseEntity.ok(Map.of("cursor", page.cursor(), "keys", page.objectIds()));
+    }
+
+    // ==========================
+    //  BULK IMPORT (NDJSON)
+    // ==========================
+    // One plan per line; the body is read while results are streamed back, one line per plan.
+    @PostMapping("/_bulk")
+    public ResponseEntity<StreamingResponseBody> bulkImport(
+        HttpServletRequest request,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        try {
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            String message = "Invalid token: " + ex.getMessage();
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        StreamingResponseBody body = out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            importer.importNdjson(request.getInputStream(), writer);
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    // ==========================
+    //  EXPORT (NDJSON)
+    // ==========================
+    // Every plan, one per line, streamed while SCAN walks the keyspace.
+    @GetMapping("/_export")
+    public ResponseEntity<StreamingResponseBody> exportPlans(
+        @RequestParam(value="gzip", defaultValue="false") boolean gzip,
+        @RequestParam(value="count", defaultValue="1000") int count,
         @RequestHeader(value="Authorization", required=false) String authHeader
     ) {
         try {
-            GoogleTokenVerifier.verifyToken(authHeader);
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            String message = "Invalid token: " + ex.getMessage();
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        StreamingResponseBody body = out -> exporter.export(out, count, gzip);
+        if (gzip) {
+            return ResponseEntity.ok()
+                                 .contentType(MediaType.parseMediaType("application/gzip"))
+                                 .header("Content-Disposition", "attachment; filename=\"plans.ndjson.gz\"")
+                                 .body(body);
+        }
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    // ==========================
+    //     SEARCH
+    // ==========================
+    // {"filter": {...}, "size": n} for the first page, then {"cursor": "...", "size": n}
+    @PostMapping("/_search")
+    public ResponseEntity<?> searchPlans(
+        @RequestBody(required=false) String searchJson,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        try {
+            verifyToken(authHeader);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                                  .body("Invalid token: " + ex.getMessage());
         }
 
-        return ResponseEntity.ok(planService.getAllKeys());
+        try {
+            return ResponseEntity.ok(planSearch.search(searchJson));
+        } catch (SearchException e) {
+            return ResponseEntity.status(e.getStatus()).body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                 .body("Search unavailable: " + e.getMessage());
+        }
     }
 
-    // =========================================
-    // Helper: Generate ETag (MD5)
-    // =========================================
-    private String generateETag(String content) {
+    // ==========================
+    //     REINDEX
+    // ==========================
+    // Rebuilds the index from Redis into a new version and moves the alias;
+    // GET reports its progress
+    @PostMapping("/_reindex")
+    public ResponseEntity<?> startReindex(
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(content.getBytes());
-            return HexFormat.of().formatHex(digest);
-        } catch (NoSuchAlgorithmException e) {
-            // fallback
-            return String.valueOf(content.hashCode());
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body("Invalid token: " + ex.getMessage());
+        }
+        if (!reindexer.start()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(reindexer.status());
         }
+        return ResponseEntity.accepted().body(reindexer.status());
     }
 
-    // =========================================
-    // Helper: Deep Merge
-    // =========================================
-    private String deepMerge(String originalJson, String patchJson) throws Exception {
-        JSONObject original = new JSONObject(originalJson);
-        JSONObject patch = new JSONObject(patchJson);
+    @GetMapping("/_reindex")
+    public ResponseEntity<?> reindexStatus(
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        try {
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body("Invalid token: " + ex.getMessage());
+        }
+        return ResponseEntity.ok(reindexer.status());
+    }
 
-        JSONObject mergedObj = mergeObjects(original, patch);
-        return mergedObj.toString();
+    // ==========================
+    //  NEAR-CACHE STATS
+    // ==========================
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> cacheStats(
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        try {
+            verifyToken(authHeader);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                                 .body("Invalid token: " + ex.getMessage());
+        }
+        return ResponseEntity.ok(planService.cacheStats());
     }
 
-    private JSONObject mergeObjects(JSONObject source, JSONObject update) {
-        for (String key : update.keySet()) {
-            Object value = update.get(key);
-
-            if (value instanceof JSONObject) {
-                JSONObject subSrc = source.optJSONObject(key);
-                if (subSrc == null) {
-                    source.put(key, value);
-                } else {
-                    // recursively merge
-                    source.put(key, mergeObjects(subSrc, (JSONObject)value));
-                }
-            }
-            else if (value instanceof JSONArray) {
-                // handle array logic
-                if ("linkedPlanServices".equals(key)) {
-                    JSONArray sourceArr = source.optJSONArray(key);
-                    if (sourceArr == null) {
-                        // not present, just put it
-                        source.put(key, value);
-                    } else {
-                        // replicate your friend's approach:
-                        JSONArray patchArr = (JSONArray)value;
-                        for (int i = 0; i < patchArr.length(); i++) {
-                            JSONObject newItem = patchArr.getJSONObject(i);
-                            String newId = newItem.optString("objectId");
-                            // check if it already exists
-                            boolean exists = false;
-                            for (int j = 0; j < sourceArr.length(); j++) {
-                                JSONObject existingItem = sourceArr.getJSONObject(j);
-                                String existingId = existingItem.optString("objectId");
-                                if (existingId.equals(newId)) {
-                                    exists = true;
-                                    break;
-                                }
-                            }
-                            if (!exists) {
-                                sourceArr.put(newItem);
-                            }
-                        }
+    // gzip's quality is that of its own entry, else that of "*", else 0
+    // (so "gzip;q=0, *" refuses gzip while "*" alone accepts it)
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String part : acceptEncoding.split(",")) {
+            String[] coding = part.trim().split(";");
+            String name = coding[0].trim();
+            double q = 1.0;
+            for (int i = 1; i < coding.length; i++) {
+                String param = coding[i].trim().replace(" ", "");
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
                     }
-                } else {
-                    // Just overwrite the array entirely
-                    source.put(key, value);
                 }
             }
-            else {
-                // primitive
-                source.put(key, value);
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                gzip = q;
+            } else if (name.equals("*")) {
+                any = q;
             }
         }
-        return source;
+        double quality = gzip != null ? gzip : any != null ? any : 0;
+        return quality > 0;
+    }
+
+    // token and schema checks are timed as plan.request.stage
+    private void verifyToken(String authHeader) throws Exception {
+        metrics.stage("token", () -> {
+            tokenVerifier.verifyToken(authHeader);
+            return null;
+        });
+    }
+
+    private void validate(PlanDocument plan) throws Exception {
+        metrics.stage("validate", () -> {
+            jsonSchema.validate(plan.tree());
+            return null;
+        });
     }
 }
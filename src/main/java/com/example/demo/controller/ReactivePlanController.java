@@ -0,0 +1,291 @@
+package com.example.demo.controller;
+
+import com.example.demo.elastic.PlanReindexer;
+import com.example.demo.elastic.PlanSearch;
+import com.example.demo.elastic.SearchException;
+import com.example.demo.metrics.PlanMetrics;
+import com.example.demo.model.PlanDocument;
+import com.example.demo.patch.JsonMerger;
+import com.example.demo.security.GoogleTokenVerifier;
+import com.example.demo.service.ETags;
+import com.example.demo.service.PlanService;
+import com.example.demo.service.ReactivePlanService;
+import com.example.demo.validation.PlanSchemaValidator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The /v1/plan API on WebFlux (profile "reactive"), same contract as
+ * {@link PlanController}. Redis is reached through the reactive client;
+ * token verification, schema validation and merging may cost milliseconds
+ * of CPU or a JWKS fetch, so they run on boundedElastic, never on the
+ * event loop.
+ */
+@RestController
+@RequestMapping("/v1/plan")
+@Profile("reactive")
+public class ReactivePlanController {
+
+    private final ReactivePlanService planService;
+    private final PlanService blockingPlanService;
+    private final GoogleTokenVerifier tokenVerifier;
+    private final JsonMerger merger;
+    private final PlanSchemaValidator jsonSchema;
+    private final PlanSearch planSearch;
+    private final PlanMetrics metrics;
+    private final PlanReindexer reindexer;
+
+    public ReactivePlanController(ReactivePlanService planService, PlanService blockingPlanService,
+                                  GoogleTokenVerifier tokenVerifier, JsonMerger merger,
+                                  PlanSchemaValidator jsonSchema, PlanSearch planSearch,
+                                  PlanMetrics metrics, PlanReindexer reindexer) {
+        this.planService = planService;
+        this.blockingPlanService = blockingPlanService;
+        this.tokenVerifier = tokenVerifier;
+        this.merger = merger;
+        this.jsonSchema = jsonSchema;
+        this.planSearch = planSearch;
+        this.metrics = metrics;
+        this.reindexer = reindexer;
+    }
+
+    // ==========================
+    //     CREATE (POST)
+    // ==========================
+    @PostMapping
+    public Mono<ResponseEntity<Object>> createPlan(
+        @RequestBody String planJson,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () ->
+            // 1. Parse once, validate JSON with schema
+            Mono.fromCallable(() -> {
+                PlanDocument plan = PlanDocument.parse(planJson);
+                metrics.stage("validate", () -> {
+                    jsonSchema.validate(plan.tree());
+                    return null;
+                });
+                return plan;
+            })
+            .subscribeOn(Schedulers.boundedElastic())
+            .map(plan -> new ParsedPlan(plan, null))
+            .onErrorResume(e -> Mono.just(new ParsedPlan(null,
+                status(HttpStatus.BAD_REQUEST, "Invalid request body: " + e.getMessage()))))
+            .flatMap(parsed -> {
+                if (parsed.error() != null) {
+                    return Mono.just(parsed.error());
+                }
+                PlanDocument plan = parsed.plan();
+                // 2. Extract objectId
+                String objectId = plan.objectId();
+                if (objectId == null) {
+                    return Mono.just(status(HttpStatus.BAD_REQUEST, "Missing or empty 'objectId'."));
+                }
+                // 3. Check duplicates, 4. save
+                return planService.exists(objectId).flatMap(exists -> exists
+                    ? Mono.just(status(HttpStatus.CONFLICT,
+                        "Plan with objectId '" + objectId + "' already exists."))
+                    : planService.save(plan, null, true).map(eTag -> ResponseEntity.status(HttpStatus.CREATED)
+                        .eTag(eTag)
+                        .body((Object) ("Plan created. objectId=" + objectId))));
+            }));
+    }
+
+    private record ParsedPlan(PlanDocument plan, ResponseEntity<Object> error) {}
+
+    // ==========================
+    //     READ (GET)
+    // ==========================
+    @GetMapping("/{objectId}")
+    public Mono<ResponseEntity<Object>> getPlan(
+       @PathVariable String objectId,
+       @RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+       @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () -> planService.getETag(objectId)
+            .flatMap(eTag -> ETags.matches(ifNoneMatch, eTag)
+                ? Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).<Object>build())
+                : planService.getWithETag(objectId)
+                    .map(plan -> ResponseEntity.ok().eTag(plan.eTag()).body((Object) plan.json())))
+            .defaultIfEmpty(status(HttpStatus.NOT_FOUND, "Plan not found for objectId: " + objectId)));
+    }
+
+    // ==========================
+    //    UPDATE (PATCH)
+    // ==========================
+    @PatchMapping("/{objectId}")
+    public Mono<ResponseEntity<Object>> patchPlan(
+        @PathVariable String objectId,
+        @RequestBody String patchJson,
+        @RequestHeader(value="If-Match", required=false) String ifMatch,
+        @RequestHeader(value="Content-Type", required=false) String contentType,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () -> planService.getETag(objectId)
+            .flatMap(currentEtag -> {
+                // 1. If-Match, decided from the stored ETag only
+                if (ifMatch == null) {
+                    return Mono.just(status(HttpStatus.PRECONDITION_FAILED, "If-Match header is required for PATCH"));
+                }
+                if (!ETags.matches(ifMatch, currentEtag)) {
+                    return Mono.just(status(HttpStatus.PRECONDITION_FAILED, "ETag mismatch: resource changed"));
+                }
+                // 2. Get existing data, still at the matched version
+                return planService.getWithETag(objectId).flatMap(stored -> !stored.eTag().equals(currentEtag)
+                    ? Mono.just(status(HttpStatus.PRECONDITION_FAILED, "ETag mismatch: resource changed"))
+                    // 3. Merge + validate off the event loop
+                    : Mono.fromCallable(() -> patch(objectId, stored, patchJson, contentType))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .flatMap(result -> result.error() != null
+                            ? Mono.just(result.error())
+                            // 4. Save only if still at the version merged from (returns the new ETag)
+                            : planService.saveIfMatch(result.merged(), result.previous(), stored.eTag())
+                                .map(newEtag -> ResponseEntity.ok().eTag(newEtag)
+                                    .body((Object) "Plan updated successfully"))
+                                .defaultIfEmpty(status(HttpStatus.PRECONDITION_FAILED,
+                                    "ETag mismatch: resource changed"))));
+            })
+            .defaultIfEmpty(status(HttpStatus.NOT_FOUND, "No plan found for objectId: " + objectId)));
+    }
+
+    private record PatchResult(PlanDocument previous, PlanDocument merged, ResponseEntity<Object> error) {}
+
+    private PatchResult patch(String objectId, PlanService.StoredPlan stored, String patchJson, String contentType) {
+        PlanDocument previous = PlanDocument.parse(stored.json());
+        PlanDocument merged;
+        try {
+            merged = metrics.stage("merge",
+                () -> PlanDocument.of(merger.apply(previous.tree(), patchJson, contentType)));
+        } catch (Exception e) {
+            return new PatchResult(previous, null,
+                status(HttpStatus.BAD_REQUEST, "Error merging JSON: " + e.getMessage()));
+        }
+        try {
+            metrics.stage("validate", () -> {
+                jsonSchema.validate(merged.tree());
+                return null;
+            });
+        } catch (Exception e) {
+            return new PatchResult(previous, null,
+                status(HttpStatus.BAD_REQUEST, "Validation error after merge: " + e.getMessage()));
+        }
+        if (!objectId.equals(merged.objectId())) {
+            return new PatchResult(previous, null,
+                status(HttpStatus.BAD_REQUEST, "PATCH must not change 'objectId'."));
+        }
+        return new PatchResult(previous, merged, null);
+    }
+
+    // ==========================
+    //     DELETE
+    // ==========================
+    @DeleteMapping("/{objectId}")
+    public Mono<ResponseEntity<Object>> deletePlan(
+        @PathVariable String objectId,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () -> planService.exists(objectId)
+            .flatMap(exists -> exists
+                ? planService.delete(objectId).thenReturn(ResponseEntity.noContent().<Object>build())
+                : Mono.just(status(HttpStatus.NOT_FOUND, "No plan found for objectId: " + objectId))));
+    }
+
+    // ==========================
+    //  LIST KEYS (SCAN)
+    // ==========================
+    @GetMapping("/keys")
+    public Mono<ResponseEntity<Object>> listAllKeys(
+        @RequestParam(value="count", defaultValue="1000") int count,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        // a Flux body is written as a JSON array while SCAN is still running
+        Flux<String> keys = planService.keys(count);
+        return authorized(authHeader, () -> Mono.just(ResponseEntity.ok().body((Object) keys)));
+    }
+
+    @GetMapping(value="/keys", params="cursor")
+    public Mono<ResponseEntity<Object>> listKeysPage(
+        @RequestParam("cursor") String cursor,
+        @RequestParam(value="count", defaultValue="100") int count,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        // resuming from a client cursor needs the native SCAN, which is blocking here
+        return authorized(authHeader, () -> Mono.fromCallable(() -> blockingPlanService.scanKeys(cursor, count))
+            .subscribeOn(Schedulers.boundedElastic())
+            .map(page -> ResponseEntity.ok().body(
+                (Object) Map.of("cursor", page.cursor(), "keys", page.objectIds()))));
+    }
+
+    // ==========================
+    //     SEARCH
+    // ==========================
+    @PostMapping("/_search")
+    public Mono<ResponseEntity<Object>> searchPlans(
+        @RequestBody(required=false) String searchJson,
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        // the Elasticsearch client blocks
+        return authorized(authHeader, () -> Mono.fromCallable(() -> planSearch.search(searchJson))
+            .subscribeOn(Schedulers.boundedElastic())
+            .map(page -> ResponseEntity.ok().body((Object) page))
+            .onErrorResume(SearchException.class, e -> Mono.just(
+                ResponseEntity.status(e.getStatus()).body((Object) e.getMessage()))));
+    }
+
+    // the rebuild runs on its own thread
+    @PostMapping("/_reindex")
+    public Mono<ResponseEntity<Object>> startReindex(
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () -> Mono.just(reindexer.start()
+            ? ResponseEntity.accepted().body((Object) reindexer.status())
+            : ResponseEntity.status(HttpStatus.CONFLICT).body((Object) reindexer.status())));
+    }
+
+    @GetMapping("/_reindex")
+    public Mono<ResponseEntity<Object>> reindexStatus(
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () -> Mono.just(ResponseEntity.ok().body((Object) reindexer.status())));
+    }
+
+    @GetMapping("/cache/stats")
+    public Mono<ResponseEntity<Object>> cacheStats(
+        @RequestHeader(value="Authorization", required=false) String authHeader
+    ) {
+        return authorized(authHeader, () -> Mono.just(ResponseEntity.ok().body((Object) blockingPlanService.cacheStats())));
+    }
+
+    /**
+     * Verifies the bearer token on a worker thread, then continues with 'then'
+     * or answers 401.
+     */
+    private Mono<ResponseEntity<Object>> authorized(String authHeader, Supplier<Mono<ResponseEntity<Object>>> then) {
+        return Mono.fromCallable(() -> {
+                metrics.stage("token", () -> {
+                    tokenVerifier.verifyToken(authHeader);
+                    return null;
+                });
+                return Optional.<String>empty();
+            })
+            .subscribeOn(Schedulers.boundedElastic())
+            .onErrorResume(e -> Mono.just(Optional.of("Invalid token: " + e.getMessage())))
+            .flatMap(error -> error.isPresent()
+                ? Mono.just(status(HttpStatus.UNAUTHORIZED, error.get()))
+                : then.get());
+    }
+
+    private static ResponseEntity<Object> status(HttpStatus status, String body) {
+        return ResponseEntity.status(status).body(body);
+    }
+}
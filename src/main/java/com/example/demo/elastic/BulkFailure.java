@@ -0,0 +1,13 @@
+package com.example.demo.elastic;
+
+/**
+ * One item of a _bulk request that Elasticsearch rejected after all retries;
+ * 'planId' is the plan the document belongs to (its routing).
+ */
+public record BulkFailure(String id, String planId, String operation, int status, String reason) {
+
+    @Override
+    public String toString() {
+        return operation + " " + id + " -> " + status + " " + reason;
+    }
+}
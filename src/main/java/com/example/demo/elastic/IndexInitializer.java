@@ -1,32 +1,83 @@
 package com.example.demo.elastic;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.ObjectProperty;
 
+/**
+ * Creates the first versioned index ({@code plans-<timestamp>}) behind the
+ * "plans" alias if neither exists, and likewise {@code plans_nested-<timestamp>}
+ * behind "plans_nested" when the nested layout is enabled (see IndexLayout).
+ * Later mapping changes are rolled out by PlanReindexer, which builds a new
+ * version and moves the alias.
+ */
 @Component
 public class IndexInitializer implements ApplicationRunner {
 
     private final ElasticsearchClient es;
+    private final IndexLayout layout;
+    private final String replicas;
 
-    public IndexInitializer(ElasticsearchClient es) {
+    public IndexInitializer(ElasticsearchClient es,
+                            IndexLayout layout,
+                            @Value("${elastic.index.replicas:1}") String replicas) {
         this.es = es;
+        this.layout = layout;
+        this.replicas = replicas;
     }
 
     @Override
     public void run(ApplicationArguments args) throws Exception {
+        if (layout.join()) {
+            ensure(PlanIndexer.INDEX);
+        }
+        if (layout.nested()) {
+            ensure(IndexLayout.NESTED_INDEX);
+        }
+    }
 
-        if (es.indices().exists(b -> b.index("plans")).value()) {
-            return;                        // index already exists
+    private void ensure(String alias) throws IOException {
+        if (es.indices().exists(b -> b.index(alias)).value()) {
+            return;                        // alias (or a pre-alias "plans" index) already exists
         }
 
+        String index = versionedName(alias);
+        create(alias, index, false);
+        es.indices().putAlias(a -> a.index(index).name(alias));
+        System.out.println("🗂️ Created " + index + " behind " + alias);
+    }
+
+    static String versionedName(String alias) {
+        return alias + "-" + System.currentTimeMillis();
+    }
+
+    /**
+     * Creates an index with the mapping of the layout served by 'alias'.
+     *
+     * @param bulkLoad no replicas and no refresh until {@link #restoreSettings}
+     */
+    void create(String alias, String index, boolean bulkLoad) throws IOException {
+        if (IndexLayout.NESTED_INDEX.equals(alias)) {
+            createNested(index, bulkLoad);
+        } else {
+            createJoin(index, bulkLoad);
+        }
+    }
+
+    private void createJoin(String index, boolean bulkLoad) throws IOException {
         es.indices().create(c -> c
-            .index("plans")
+            .index(index)
+            .settings(s -> bulkLoad
+                ? s.numberOfReplicas("0").refreshInterval(t -> t.time("-1"))
+                : s.numberOfReplicas(replicas))
             .mappings(m -> m
             		.properties("plan_join",
             			    p -> p.join(j -> j.relations(
@@ -46,11 +97,67 @@ public class IndexInitializer implements ApplicationRunner {
                 .properties("deductible", p -> p.integer(i -> i))
                 .properties("copay",      p -> p.integer(i -> i))
                 .properties("name",       p -> p.keyword(k -> k))
+                .properties("planType",   p -> p.keyword(k -> k))
                 .properties("planStatus", p -> p.keyword(k -> k))
+                // manifest of the plan's descendant ids, only ever read by id (see PlanIndexer)
+                .properties(PlanIndexer.MANIFEST, p -> p.keyword(k -> k.index(false).docValues(false)))
                 .properties("creationDate",
                         p -> p.date(d -> d.format("dd-MM-yyyy||yyyy-MM-dd")))
 
             )
         );
     }
+
+    /**
+     * One document per plan: cost shares as a plain object (one per plan or
+     * service), linked plan services as nested objects so that a query can
+     * match the service and its cost shares of the same entry.
+     */
+    private void createNested(String index, boolean bulkLoad) throws IOException {
+        es.indices().create(c -> c
+            .index(index)
+            .settings(s -> bulkLoad
+                ? s.numberOfReplicas("0").refreshInterval(t -> t.time("-1"))
+                : s.numberOfReplicas(replicas))
+            .mappings(m -> m
+                .properties("objectId",   p -> p.keyword(k -> k))
+                .properties("objectType", p -> p.keyword(k -> k))
+                .properties("_org",       p -> p.keyword(k -> k))
+                .properties("planType",   p -> p.keyword(k -> k))
+                .properties("planStatus", p -> p.keyword(k -> k))
+                .properties("creationDate",
+                        p -> p.date(d -> d.format("dd-MM-yyyy||yyyy-MM-dd")))
+                .properties("planCostShares", p -> p.object(o -> costShare(o)))
+                .properties("linkedPlanServices", p -> p.nested(n -> n
+                    .properties("objectId",   q -> q.keyword(k -> k))
+                    .properties("objectType", q -> q.keyword(k -> k))
+                    .properties("_org",       q -> q.keyword(k -> k))
+                    .properties("linkedService", q -> q.object(o -> o
+                        .properties("objectId",   r -> r.keyword(k -> k))
+                        .properties("objectType", r -> r.keyword(k -> k))
+                        .properties("_org",       r -> r.keyword(k -> k))
+                        .properties("name",       r -> r.keyword(k -> k))))
+                    .properties("planserviceCostShares", q -> q.object(o -> costShare(o)))))
+            )
+        );
+    }
+
+    private static ObjectProperty.Builder costShare(ObjectProperty.Builder o) {
+        return o
+            .properties("objectId",   p -> p.keyword(k -> k))
+            .properties("objectType", p -> p.keyword(k -> k))
+            .properties("_org",       p -> p.keyword(k -> k))
+            .properties("deductible", p -> p.integer(i -> i))
+            .properties("copay",      p -> p.integer(i -> i));
+    }
+
+    /**
+     * Back to the serving settings after a bulk load, then one refresh.
+     */
+    void restoreSettings(String index) throws IOException {
+        es.indices().putSettings(p -> p
+            .index(index)
+            .settings(s -> s.numberOfReplicas(replicas).refreshInterval(t -> t.time("1s"))));
+        es.indices().refresh(r -> r.index(index));
+    }
 }
@@ -0,0 +1,47 @@
+package com.example.demo.elastic;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Index layouts written by PlanIndexer, selected with {@code plan.index.layout}:
+ *
+ * <ul>
+ *   <li>{@code join} – one document per object, linked by the plan_join
+ *       field, in the "plans" alias;</li>
+ *   <li>{@code nested} – one document per plan with its linked plan services
+ *       as nested objects, in the "plans_nested" alias;</li>
+ *   <li>{@code both} – writes both and keeps searching the join layout, for
+ *       migrating (rebuild with /v1/plan/_reindex, then switch to nested).</li>
+ * </ul>
+ */
+@Component
+public class IndexLayout {
+
+    public static final String NESTED_INDEX = "plans_nested";
+
+    private final boolean join;
+    private final boolean nested;
+
+    public IndexLayout(@Value("${plan.index.layout:join}") String layout) {
+        switch (layout) {
+            case "join" -> { join = true; nested = false; }
+            case "nested" -> { join = false; nested = true; }
+            case "both" -> { join = true; nested = true; }
+            default -> throw new IllegalArgumentException("Unknown plan.index.layout: " + layout);
+        }
+    }
+
+    public boolean join() {
+        return join;
+    }
+
+    public boolean nested() {
+        return nested;
+    }
+
+    /** Searches use the nested layout once it is the only one written. */
+    public boolean searchNested() {
+        return nested && !join;
+    }
+}
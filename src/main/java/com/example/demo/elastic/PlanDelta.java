@@ -0,0 +1,25 @@
+package com.example.demo.elastic;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * What to write to the index for one plan.
+ *
+ * @param plan     latest plan document
+ * @param indexIds objectIds of the documents to (re)index, or null for the whole tree
+ * @param deletes  documents to delete, objectId to the objectId of their former parent
+ *                 (all of a plan's documents are routed by the plan id, see PlanIndexer)
+ */
+public record PlanDelta(JsonNode plan, Set<String> indexIds, Map<String, String> deletes) {
+
+    public static PlanDelta full(JsonNode plan) {
+        return new PlanDelta(plan, null, Map.of());
+    }
+
+    public boolean includes(String objectId) {
+        return indexIds == null || indexIds.contains(objectId);
+    }
+}
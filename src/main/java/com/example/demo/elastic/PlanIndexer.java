@@ -1,141 +1,509 @@
 package com.example.demo.elastic;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.example.demo.metrics.PlanMetrics;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-
-import java.util.Map;
-import java.util.List;
-
 import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.util.BinaryData;
+import co.elastic.clients.util.ContentType;
+import io.micrometer.core.instrument.Timer;
 
 
-
+/**
+ * Writes plan trees to the layouts selected by IndexLayout: to the "plans"
+ * alias (see IndexInitializer) as join-field families, and/or to the
+ * "plans_nested" alias as one document per plan.
+ *
+ * Every document of a plan (children and grandchildren alike) is routed by
+ * the root plan id, so the whole family lives on one shard as the join
+ * field requires. The root document carries the manifest of its
+ * descendants' ids ({@value #MANIFEST}), so deleting or replacing a plan
+ * is a batch of id-based deletes in the same _bulk as the new documents
+ * rather than a delete-by-query across the cluster.
+ */
 @Service
 public class PlanIndexer {
 
+    /** Alias of the live versioned index, see IndexInitializer. */
+    static final String INDEX = "plans";
+
+    /** Root document field listing the ids of all of the plan's other documents. */
+    static final String MANIFEST = "descendants";
+
+    // action/metadata line of a bulk item, on top of the document source
+    private static final int ACTION_OVERHEAD_BYTES = 128;
+
+    // children of one legacy plan: its cost share and linked plan services
+    private static final int MAX_LEGACY_CHILDREN = 10_000;
+
     private final ElasticsearchClient es;
+    private final IndexLayout layout;
+    private final PlanMetrics metrics;
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public PlanIndexer(ElasticsearchClient es){ this.es = es; }
+    private final int maxBatchActions;
+    private final long maxBatchBytes;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+
+    public PlanIndexer(
+        ElasticsearchClient es,
+        IndexLayout layout,
+        PlanMetrics metrics,
+        @Value("${elastic.bulk.max-actions:1000}") int maxBatchActions,
+        @Value("${elastic.bulk.max-bytes:5242880}") long maxBatchBytes,
+        @Value("${elastic.bulk.max-retries:3}") int maxRetries,
+        @Value("${elastic.bulk.retry-backoff-ms:100}") long retryBackoffMs
+    ) {
+        this.es = es;
+        this.layout = layout;
+        this.metrics = metrics;
+        this.maxBatchActions = maxBatchActions;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    /** A bulk item together with its plan (routing) and estimated request size. */
+    record PendingOp(String id, String planId, BulkOperation op, long bytes) {}
+
+    /**
+     * Where one write goes: an alias or concrete index per layout, null for
+     * a layout that is not written.
+     */
+    public record Targets(String join, String nested) {}
+
+    /** The aliases of the configured layouts. */
+    public Targets live() {
+        return new Targets(layout.join() ? INDEX : null, layout.nested() ? IndexLayout.NESTED_INDEX : null);
+    }
 
     /* ----- public API used by consumer ----- */
-    public void indexOrUpdate(JsonNode data) throws IOException {
+    public List<BulkFailure> indexOrUpdate(JsonNode data) throws IOException {
+        return index(List.of(PlanDelta.full(data)));
+    }
+
+    public List<BulkFailure> index(List<PlanDelta> deltas) throws IOException {
+        return index(live(), List.of(), deltas);
+    }
+
+    public List<BulkFailure> index(List<String> planDeletes, List<PlanDelta> deltas) throws IOException {
+        return index(live(), planDeletes, deltas);
+    }
+
+    /**
+     * Removes the given plans, then writes the given plan deltas, to every
+     * layout in 'targets', through as few _bulk requests as the configured
+     * batch limits allow: per layout, deletes of removed plans and children
+     * first, then the (re)indexed documents.
+     *
+     * @param targets     the aliases, or concrete indices being rebuilt
+     * @param planDeletes plans whose documents have to go (deleted, or
+     *                    re-created and indexed again by 'deltas')
+     * @return items that still failed after retrying
+     */
+    public List<BulkFailure> index(Targets targets, List<String> planDeletes, List<PlanDelta> deltas)
+            throws IOException {
+        for (PlanDelta delta : deltas) {
+            System.out.println("📦 Indexing parent plan: " + delta.plan().get("objectId").asText()
+                + (delta.indexIds() == null ? "" : " (" + delta.indexIds().size() + " changed, "
+                    + delta.deletes().size() + " removed)"));
+        }
+        List<PendingOp> ops = new ArrayList<>();
+        if (targets.join() != null) {
+            addJoinOperations(targets.join(), planDeletes, deltas, ops);
+        }
+        if (targets.nested() != null) {
+            for (String planId : planDeletes) {
+                addDelete(ops, targets.nested(), planId, planId);
+            }
+            for (PlanDelta delta : deltas) {
+                addNestedOperation(targets.nested(), delta.plan(), ops);
+            }
+        }
+        Timer.Sample sample = metrics.start();
+        List<BulkFailure> failures = bulk(ops);
+        metrics.indexed(sample, ops.size(), failures.size());
+        return failures;
+    }
+
+    /**
+     * Join layout: the manifests of all these plans are read with one mget,
+     * then deletes and index operations are added to 'ops'.
+     */
+    private void addJoinOperations(String index, List<String> planDeletes, List<PlanDelta> deltas,
+                                   List<PendingOp> ops) throws IOException {
+        Set<String> planIds = new LinkedHashSet<>(planDeletes);
+        for (PlanDelta delta : deltas) {
+            planIds.add(delta.plan().get("objectId").asText());
+        }
+        Map<String, Set<String>> manifests = manifests(index, planIds);
+
+        List<String> legacy = new ArrayList<>();
+        for (String planId : planDeletes) {
+            if (!manifests.containsKey(planId)) {
+                continue;                       // not indexed
+            }
+            Set<String> descendants = manifests.get(planId);
+            if (descendants == null) {
+                legacy.add(planId);             // indexed before manifests existed
+                continue;
+            }
+            descendants.forEach(id -> addDelete(ops, index, id, planId));
+            addDelete(ops, index, planId, planId);
+        }
+        List<PlanDelta> writes = new ArrayList<>(deltas.size());
+        for (PlanDelta delta : deltas) {
+            String planId = delta.plan().get("objectId").asText();
+            if (planDeletes.contains(planId)) {
+                writes.add(delta);
+                continue;
+            }
+            if (!manifests.containsKey(planId) || manifests.get(planId) == null) {
+                // not indexed yet, or indexed with the old routing: replace it whole
+                if (manifests.containsKey(planId)) {
+                    legacy.add(planId);
+                }
+                writes.add(PlanDelta.full(delta.plan()));
+                continue;
+            }
+            delta.deletes().keySet().forEach(id -> addDelete(ops, index, id, planId));
+            if (delta.indexIds() == null) {
+                // full re-index: drop children that are no longer in the tree
+                Set<String> stale = new LinkedHashSet<>(manifests.get(planId));
+                stale.removeAll(descendantIds(delta.plan()));
+                stale.forEach(id -> addDelete(ops, index, id, planId));
+            }
+            writes.add(delta);
+        }
+        for (String planId : legacy) {
+            legacyCascadeDelete(index, planId);
+        }
+
+        for (PlanDelta delta : writes) {
+            addPlanOperations(index, delta, ops);
+        }
+    }
+
+    /**
+     * Nested layout: the whole plan is one document, so every change
+     * rewrites it (see IndexInitializer#createNested for the mapping).
+     */
+    @SuppressWarnings("unchecked")
+    void addNestedOperation(String index, JsonNode plan, List<PendingOp> ops) throws IOException {
+        String planId = plan.get("objectId").asText();
+        addIndex(ops, index, planId, planId, mapper.convertValue(plan, Map.class));
+    }
+
+    /**
+     * Builds the index operations for one plan tree, limited to the delta's
+     * ids. The root is always written, since it holds the manifest.
+     */
+    void addPlanOperations(PlanDelta delta, List<PendingOp> ops) throws IOException {
+        addPlanOperations(INDEX, delta, ops);
+    }
+
+    void addPlanOperations(String index, PlanDelta delta, List<PendingOp> ops) throws IOException {
+        JsonNode data = delta.plan();
         String planId = data.get("objectId").asText();
-        
-        System.out.println("📦 Indexing parent plan: " + planId);
-
-        // 1. root doc
-        es.index(i -> i
-            .index("plans").id(planId)
-            .document(Map.of(
-                "objectId", planId,
-                "objectType", data.get("objectType").asText(),
-                "_org", data.get("_org").asText(),
-                "planType",   data.get("planType").asText(),
-                "creationDate", data.get("creationDate").asText(),
-                "plan_join", Map.of("name","plan")
-            )));
-
-//        // 2. planCostShares
-//        JsonNode pcs = data.get("planCostShares");
-//        es.index(i -> i
-//            .index("plans")
-//            .id(pcs.get("objectId").asText())
-//            .routing(planId)
-//            .document(mapper.convertValue(pcs, Map.class))
-//            .withJson(j -> j.add("plan_join", Map.of("name","planCostShares","parent",planId))));
-
-        
-     // 2. planCostShares  ─────────────────────────────────────────────
-        JsonNode pcs = data.get("planCostShares");
 
-        String pcsId = pcs.get("objectId").asText();
-        System.out.println("💰 Indexing planCostShares: " + pcsId);
-        
-        Map<String,Object> pcsMap = mapper.convertValue(pcs, Map.class);
-        pcsMap.put("plan_join", Map.of("name","planCostShares","parent", planId));
+        // 1. root doc + manifest
+        addIndex(ops, index, planId, planId, Map.of(
+            "objectId", planId,
+            "objectType", data.get("objectType").asText(),
+            "_org", data.get("_org").asText(),
+            "planType",   data.get("planType").asText(),
+            "creationDate", data.get("creationDate").asText(),
+            "plan_join", Map.of("name","plan"),
+            MANIFEST, List.copyOf(descendantIds(data))
+        ));
 
-        es.index(i -> i.index("plans")
-                       .id(pcs.get("objectId").asText())
-                       .routing(planId)
-                       .document(pcsMap));
+        // 2. planCostShares
+        JsonNode pcs = data.get("planCostShares");
+        if (delta.includes(pcs.get("objectId").asText())) {
+            Map<String,Object> pcsMap = mapper.convertValue(pcs, Map.class);
+            pcsMap.put("plan_join", Map.of("name","planCostShares","parent", planId));
+            addIndex(ops, index, pcs.get("objectId").asText(), planId, pcsMap);
+        }
 
-        
         // 3. linkedPlanServices & their children
         for (JsonNode svc : data.withArray("linkedPlanServices")) {
             String lpsId = svc.get("objectId").asText();
-            System.out.println("🧩 Indexing linkedPlanService: " + lpsId);
 
-            es.index(i -> i.index("plans").id(lpsId).routing(planId)
-                .document(Map.of(
+            if (delta.includes(lpsId)) {
+                addIndex(ops, index, lpsId, planId, Map.of(
                     "objectId", lpsId,
                     "objectType", svc.get("objectType").asText(),
                     "_org", svc.get("_org").asText(),
                     "plan_join", Map.of("name","linkedPlanServices","parent",planId)
-                )));
-
-//            // linkedService
-//            JsonNode ls = svc.get("linkedService");
-//            es.index(i -> i.index("plans").id(ls.get("objectId").asText()).routing(lpsId)
-//                .document(mapper.convertValue(ls, Map.class))
-//                .withJson(j -> j.add("plan_join", Map.of("name","linkedService","parent",lpsId))));
-            
-         // linkedService ─────────────────────────────────────────────────
+                ));
+            }
+
+            // linkedService
             JsonNode ls = svc.get("linkedService");
-            
-            String lsId = ls.get("objectId").asText();
-            System.out.println("   └─🔗 linkedService: " + lsId);
-            
-            Map<String,Object> lsMap = mapper.convertValue(ls, Map.class);
-            lsMap.put("plan_join", Map.of("name","linkedService","parent", lpsId));
-
-            es.index(i -> i.index("plans")
-                           .id(ls.get("objectId").asText())
-                           .routing(lpsId)
-                           .document(lsMap));
-            
-            
-
-//            // planserviceCostShares
-//            JsonNode lscs = svc.get("planserviceCostShares");
-//            es.index(i -> i.index("plans").id(lscs.get("objectId").asText()).routing(lpsId)
-//                .document(mapper.convertValue(lscs, Map.class))
-//                .withJson(j -> j.add("plan_join", Map.of("name","planserviceCostShares","parent",lpsId))));
-            
-         // planserviceCostShares ────────────────────────────────────────
+            if (delta.includes(ls.get("objectId").asText())) {
+                Map<String,Object> lsMap = mapper.convertValue(ls, Map.class);
+                lsMap.put("plan_join", Map.of("name","linkedService","parent", lpsId));
+                addIndex(ops, index, ls.get("objectId").asText(), planId, lsMap);
+            }
+
+            // planserviceCostShares
             JsonNode lscs = svc.get("planserviceCostShares");
-            
-            String lscsId = lscs.get("objectId").asText();
-            System.out.println("   └─💸 planserviceCostShares: " + lscsId);
-            
-            Map<String,Object> lscsMap = mapper.convertValue(lscs, Map.class);
-            lscsMap.put("plan_join", Map.of("name","planserviceCostShares","parent", lpsId));
-
-            es.index(i -> i.index("plans")
-                           .id(lscs.get("objectId").asText())
-                           .routing(lpsId)
-                           .document(lscsMap));
-            
-            
-        }
-    }
-
-    public void cascadeDelete(String planId) throws IOException {
-        // Delete by query on parent + all children
-        es.deleteByQuery(q -> q.index("plans")
-            .query(t -> t
-                .bool(b -> b
-                    .should(s -> s.ids(i -> i.values(planId)))
-                    .should(s -> s.term(tm -> tm.field("plan_join.parent").value(planId)))
-                )
-            )
+            if (delta.includes(lscs.get("objectId").asText())) {
+                Map<String,Object> lscsMap = mapper.convertValue(lscs, Map.class);
+                lscsMap.put("plan_join", Map.of("name","planserviceCostShares","parent", lpsId));
+                addIndex(ops, index, lscs.get("objectId").asText(), planId, lscsMap);
+            }
+        }
+    }
+
+    /** Ids of every document of the plan except the root, as indexed by addPlanOperations. */
+    static Set<String> descendantIds(JsonNode plan) {
+        Set<String> ids = new LinkedHashSet<>();
+        ids.add(plan.get("planCostShares").get("objectId").asText());
+        for (JsonNode svc : plan.withArray("linkedPlanServices")) {
+            ids.add(svc.get("objectId").asText());
+            ids.add(svc.get("linkedService").get("objectId").asText());
+            ids.add(svc.get("planserviceCostShares").get("objectId").asText());
+        }
+        return ids;
+    }
+
+    /**
+     * Manifests of the given plans: absent when the plan is not indexed,
+     * null when its root was indexed without one.
+     */
+    private Map<String, Set<String>> manifests(String index, Set<String> planIds) throws IOException {
+        Map<String, Set<String>> manifests = new HashMap<>();
+        if (planIds.isEmpty()) {
+            return manifests;
+        }
+        MgetResponse<JsonNode> response = es.mget(m -> {
+            m.index(index);
+            for (String planId : planIds) {
+                m.docs(d -> d.id(planId).routing(planId).source(s -> s.filter(f -> f.includes(MANIFEST))));
+            }
+            return m;
+        }, JsonNode.class);
+        for (MultiGetResponseItem<JsonNode> item : response.docs()) {
+            if (!item.isResult() || !item.result().found()) {
+                continue;
+            }
+            GetResult<JsonNode> doc = item.result();
+            JsonNode ids = doc.source() == null ? null : doc.source().get(MANIFEST);
+            Set<String> descendants = null;
+            if (ids != null) {
+                descendants = new LinkedHashSet<>();
+                for (JsonNode id : ids) {
+                    descendants.add(id.asText());
+                }
+            }
+            manifests.put(doc.id(), descendants);
+        }
+        return manifests;
+    }
+
+    // every document of a plan is routed by the root plan id (see addPlanOperations)
+    private void addDelete(List<PendingOp> ops, String index, String id, String planId) {
+        BulkOperation op = BulkOperation.of(b -> b
+            .delete(d -> d.index(index).id(id).routing(planId)));
+        ops.add(new PendingOp(id, planId, op, ACTION_OVERHEAD_BYTES));
+    }
+
+    // serialized once here: the size bounds the batch and the bytes go into the _bulk body as is
+    private void addIndex(List<PendingOp> ops, String index, String id, String routing,
+                          Map<String,Object> doc) throws IOException {
+        byte[] source = mapper.writeValueAsBytes(doc);
+        BinaryData document = BinaryData.of(source, ContentType.APPLICATION_JSON);
+        BulkOperation op = BulkOperation.of(b -> b
+            .index(i -> i.index(index).id(id).routing(routing).document(document)));
+        ops.add(new PendingOp(id, routing, op, source.length + ACTION_OVERHEAD_BYTES));
+    }
+
+    /**
+     * Splits the operations into batches bounded by max-actions and
+     * max-bytes and sends each batch as one _bulk request.
+     */
+    List<BulkFailure> bulk(List<PendingOp> ops) throws IOException {
+        ops = withoutSupersededDeletes(ops);
+        List<BulkFailure> failures = new ArrayList<>();
+        List<PendingOp> batch = new ArrayList<>();
+        long batchBytes = 0;
+
+        for (PendingOp op : ops) {
+            if (!batch.isEmpty()
+                && (batch.size() >= maxBatchActions || batchBytes + op.bytes() > maxBatchBytes)) {
+                failures.addAll(sendWithRetry(batch));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(op);
+            batchBytes += op.bytes();
+        }
+        if (!batch.isEmpty()) {
+            failures.addAll(sendWithRetry(batch));
+        }
+
+        for (BulkFailure f : failures) {
+            System.out.println("❌ Bulk item failed: " + f);
+        }
+        return failures;
+    }
+
+    /**
+     * Drops deletes of documents that are indexed again in the same call
+     * (a re-created plan, a full re-index keeping some ids). The index
+     * operation replaces the whole document anyway, and a delete retried
+     * after it (see sendWithRetry) would remove the new version.
+     */
+    static List<PendingOp> withoutSupersededDeletes(List<PendingOp> ops) {
+        Set<String> indexed = new HashSet<>();
+        for (PendingOp op : ops) {
+            if (op.op().isIndex()) {
+                indexed.add(op.op().index().index() + "/" + op.id());
+            }
+        }
+        List<PendingOp> kept = new ArrayList<>(ops.size());
+        for (PendingOp op : ops) {
+            if (!(op.op().isDelete() && indexed.contains(op.op().delete().index() + "/" + op.id()))) {
+                kept.add(op);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Sends one batch; items rejected with a retryable status (429 or 5xx)
+     * are resent on their own with exponential backoff, everything else is
+     * reported back to the caller.
+     */
+    private List<BulkFailure> sendWithRetry(List<PendingOp> batch) throws IOException {
+        List<BulkFailure> failures = new ArrayList<>();
+        List<PendingOp> pending = batch;
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<BulkOperation> operations = pending.stream().map(PendingOp::op).toList();
+            BulkResponse response = es.bulk(b -> b.operations(operations));
+            if (!response.errors()) {
+                break;
+            }
+
+            List<PendingOp> retry = new ArrayList<>();
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    continue;
+                }
+                if (isRetryable(item.status()) && attempt < maxRetries) {
+                    retry.add(pending.get(i));
+                } else {
+                    failures.add(new BulkFailure(item.id(), pending.get(i).planId(),
+                        item.operationType().jsonValue(), item.status(),
+                        item.error().type() + ": " + item.error().reason()));
+                }
+            }
+
+            if (!retry.isEmpty()) {
+                backoff(attempt);
+            }
+            pending = retry;
+        }
+        return failures;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private void backoff(int attempt) throws IOException {
+        try {
+            Thread.sleep(retryBackoffMs << Math.min(attempt, 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrying bulk request", e);
+        }
+    }
+
+    public List<BulkFailure> cascadeDelete(String planId) throws IOException {
+        return index(live(), List.of(planId), List.of());
+    }
+
+    /** Outcome of {@link #load}. */
+    public record Loaded(int documents, int failures) {}
+
+    /**
+     * Indexes complete plans into an index that does not hold them yet
+     * (see PlanReindexer): no manifests to read, nothing to delete.
+     */
+    public Loaded load(Targets targets, List<JsonNode> plans) throws IOException {
+        List<PendingOp> ops = new ArrayList<>();
+        for (JsonNode plan : plans) {
+            if (targets.join() != null) {
+                addPlanOperations(targets.join(), PlanDelta.full(plan), ops);
+            }
+            if (targets.nested() != null) {
+                addNestedOperation(targets.nested(), plan, ops);
+            }
+        }
+        Timer.Sample sample = metrics.start();
+        List<BulkFailure> failures = bulk(ops);
+        metrics.indexed(sample, ops.size(), failures.size());
+        return new Loaded(ops.size(), failures.size());
+    }
+
+    /**
+     * Delete-by-query for plans indexed before manifests existed: the root,
+     * its children and the grandchildren under its linked plan services.
+     * Those grandchildren were routed by their service's id, not the plan's,
+     * so has_parent (which only joins within a shard) would miss them; the
+     * children's ids are looked up first and matched as parents instead.
+     */
+    private void legacyCascadeDelete(String index, String planId) throws IOException {
+        SearchResponse<JsonNode> children = es.search(s -> s.index(index)
+            .query(q -> q.term(t -> t.field("plan_join.parent").value(planId)))
+            .source(src -> src.fetch(false))
+            .size(MAX_LEGACY_CHILDREN), JsonNode.class);
+        List<String> childIds = children.hits().hits().stream().map(Hit::id).toList();
+        es.deleteByQuery(q -> q.index(index)
+            .query(legacyDeleteQuery(planId, childIds))
             .conflicts(Conflicts.Proceed));
     }
+
+    /** Root, children and grandchildren of a legacy plan, without relying on routing. */
+    static Query legacyDeleteQuery(String planId, List<String> childIds) {
+        return Query.of(q -> q.bool(b -> {
+            b.should(s -> s.ids(i -> i.values(planId)))
+                .should(s -> s.term(t -> t.field("plan_join.parent").value(planId)));
+            if (!childIds.isEmpty()) {
+                List<FieldValue> parents = childIds.stream().map(FieldValue::of).toList();
+                b.should(s -> s.terms(t -> t.field("plan_join.parent").terms(v -> v.value(parents))));
+            }
+            return b;
+        }));
+    }
 }
@@ -0,0 +1,459 @@
+package com.example.demo.elastic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.service.PlanOutbox;
+import com.example.demo.service.PlanService;
+import com.example.demo.service.RedisLease;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.indices.GetAliasResponse;
+
+/**
+ * Rebuilds the index from Redis without an indexing gap:
+ *
+ * <ol>
+ *   <li>note the outbox stream position and create {@code plans-<timestamp>}
+ *       (and/or {@code plans_nested-<timestamp>}, see IndexLayout) with no
+ *       replicas and refresh disabled;</li>
+ *   <li>SCAN the plans and bulk-load each page, {@code plan.reindex.parallelism}
+ *       pages at a time, paced to {@code plan.reindex.max-docs-per-second};</li>
+ *   <li>replay the plans changed since step 1 (read again from Redis, so
+ *       the latest state wins), restore replicas and refresh;</li>
+ *   <li>move the aliases in one atomic update and replay once more
+ *       for changes that reached the old indices during the swap.</li>
+ * </ol>
+ * Live indexing keeps writing to the aliases throughout. The previous
+ * indices are kept for rollback. If any document failed to index, or the
+ * outbox was trimmed past the start position, the job fails before the
+ * swap and the aliases stay where they were.
+ *
+ * Runs on one instance at a time across the cluster: the job holds a Redis
+ * lease ({@code <stream>:reindex-lease}) renewed every third of
+ * {@code plan.reindex.lease-ms}, and does not swap once it has lost it.
+ *
+ * Every layout enabled by {@code plan.index.layout} is rebuilt, which is how
+ * the nested layout is first filled when migrating to it.
+ */
+@Service
+public class PlanReindexer {
+
+    /** Progress of the current or last rebuild. */
+    public record Status(String state, String index, long plans, long documents, long failures,
+                         long replayed, long docsPerSecond, long elapsedMs, String error) {}
+
+    private final ElasticsearchClient es;
+    private final IndexLayout layout;
+    private final IndexInitializer initializer;
+    private final PlanIndexer indexer;
+    private final PlanService planService;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String stream;
+    private final int pageSize;
+    private final int parallelism;
+    private final long maxDocsPerSecond;
+    private final RedisLease lease;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicReference<Status> status =
+        new AtomicReference<>(new Status("idle", null, 0, 0, 0, 0, 0, 0, null));
+    private final AtomicLong plans = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private volatile long startedAt;
+    private volatile PlanIndexer.Targets target;
+    private volatile String state = "idle";
+    private volatile boolean leaseLost;
+    private long lastReportAt;
+
+    public PlanReindexer(
+        ElasticsearchClient es,
+        IndexLayout layout,
+        IndexInitializer initializer,
+        PlanIndexer indexer,
+        PlanService planService,
+        PlanOutbox outbox,
+        RedisTemplate<String, String> redisTemplate,
+        @Value("${plan.reindex.page-size:500}") int pageSize,
+        @Value("${plan.reindex.parallelism:4}") int parallelism,
+        @Value("${plan.reindex.max-docs-per-second:0}") long maxDocsPerSecond,
+        @Value("${plan.reindex.lease-ms:30000}") long leaseMs
+    ) {
+        this.es = es;
+        this.layout = layout;
+        this.initializer = initializer;
+        this.indexer = indexer;
+        this.planService = planService;
+        this.redisTemplate = redisTemplate;
+        this.stream = outbox.stream();
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+        this.maxDocsPerSecond = maxDocsPerSecond;
+        this.lease = new RedisLease(redisTemplate, stream + ":reindex-lease", Duration.ofMillis(leaseMs));
+    }
+
+    /**
+     * Starts a rebuild in the background.
+     *
+     * @return false if one is already running, here or on another instance
+     */
+    public synchronized boolean start() {
+        if (isRunning() || !lease.acquireOrRenew()) {
+            return false;
+        }
+        leaseLost = false;
+        plans.set(0);
+        documents.set(0);
+        failures.set(0);
+        replayed.set(0);
+        startedAt = System.currentTimeMillis();
+        target = new PlanIndexer.Targets(
+            layout.join() ? IndexInitializer.versionedName(PlanIndexer.INDEX) : null,
+            layout.nested() ? IndexInitializer.versionedName(IndexLayout.NESTED_INDEX) : null);
+        state = "loading";
+        status.set(snapshot(null));
+
+        Thread job = new Thread(this::run, "plan-reindex");
+        job.setDaemon(true);
+        job.start();
+        return true;
+    }
+
+    public Status status() {
+        return isRunning() ? snapshot(null) : status.get();
+    }
+
+    private boolean isRunning() {
+        return !"idle".equals(state) && !"done".equals(state) && !"failed".equals(state);
+    }
+
+    private void run() {
+        ScheduledExecutorService renewal = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "plan-reindex-lease");
+            t.setDaemon(true);
+            return t;
+        });
+        long renewMs = lease.ttl().toMillis() / 3;
+        renewal.scheduleAtFixedRate(() -> {
+            try {
+                if (!lease.renew()) {
+                    leaseLost = true;
+                }
+            } catch (Exception e) {
+                leaseLost = true;      // an unrenewed lease expires: treat it as lost
+            }
+        }, renewMs, renewMs, TimeUnit.MILLISECONDS);
+        try {
+            String position = lastStreamId();
+            for (String index : indices()) {
+                initializer.create(alias(index), index, true);
+            }
+            System.out.println("🔁 Reindex into " + indices() + " started, outbox position " + position);
+
+            load();
+
+            state = "replaying";
+            position = replay(position);
+            if (failures.get() > 0) {
+                throw new IllegalStateException(failures.get() + " documents failed to index");
+            }
+            for (String index : indices()) {
+                initializer.restoreSettings(index);
+            }
+            if (leaseLost) {
+                throw new IllegalStateException("Lost the reindex lease; another instance may be rebuilding");
+            }
+
+            state = "swapping";
+            List<String> previous = swapAliases();
+            replay(position);
+
+            state = "done";
+            status.set(snapshot(null));
+            System.out.println("✅ Reindex done: " + status.get() + ", previous index " + previous
+                + " kept for rollback");
+        } catch (Exception e) {
+            System.out.println("❌ Reindex into " + indices() + " failed while " + state
+                + ("swapping".equals(state) ? "" : " (alias unchanged)") + ": " + e.getMessage());
+            state = "failed";
+            status.set(snapshot(e.getMessage()));
+            e.printStackTrace();
+        } finally {
+            renewal.shutdownNow();
+            if (!leaseLost) {
+                lease.release();
+            }
+        }
+    }
+
+    /** SCAN pages fanned out to 'parallelism' workers; the bounded queue holds SCAN back. */
+    private void load() throws InterruptedException {
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(parallelism), r -> {
+                Thread t = new Thread(r, "plan-reindex-worker");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicReference<Exception> error = new AtomicReference<>();
+        try {
+            planService.forEachKeyPage(pageSize, ids -> {
+                if (error.get() != null) {
+                    throw new IllegalStateException("Reindex worker failed", error.get());
+                }
+                workers.execute(() -> {
+                    try {
+                        loadPage(ids);
+                    } catch (Exception e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                report();
+            });
+        } finally {
+            shutdown(workers);
+        }
+        if (error.get() != null) {
+            throw new IllegalStateException("Reindex worker failed: " + error.get().getMessage(), error.get());
+        }
+    }
+
+    private void loadPage(List<String> ids) throws IOException {
+        List<JsonNode> page = new ArrayList<>(ids.size());
+        for (String json : planService.getAll(ids)) {
+            if (json != null) {               // deleted since SCAN returned it
+                page.add(mapper.readTree(json));
+            }
+        }
+        if (page.isEmpty()) {
+            return;
+        }
+        PlanIndexer.Loaded loaded = indexer.load(target, page);
+        plans.addAndGet(page.size());
+        documents.addAndGet(loaded.documents());
+        failures.addAndGet(loaded.failures());
+        throttle();
+    }
+
+    // keeps the overall rate at or below max-docs-per-second, leaving room for live indexing
+    private void throttle() {
+        if (maxDocsPerSecond <= 0) {
+            return;
+        }
+        long dueMs = documents.get() * 1000 / maxDocsPerSecond;
+        long aheadMs = dueMs - (System.currentTimeMillis() - startedAt);
+        if (aheadMs > 0) {
+            try {
+                Thread.sleep(aheadMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void report() {
+        long now = System.currentTimeMillis();
+        if (now - lastReportAt >= 10_000) {
+            lastReportAt = now;
+            Status s = snapshot(null);
+            System.out.println("🔁 Reindex " + s.index() + ": " + s.plans() + " plans, " + s.documents()
+                + " documents, " + s.docsPerSecond() + " docs/s");
+        }
+    }
+
+    /**
+     * Re-indexes every plan named in the outbox after 'from' with its current
+     * state in Redis (deleted ones are removed).
+     *
+     * @return the last stream id replayed
+     */
+    private String replay(String from) throws IOException {
+        checkNotTrimmed(from);
+        String position = from;
+        while (true) {
+            List<MapRecord<String, Object, Object>> entries = redisTemplate.opsForStream().range(stream,
+                Range.of(Range.Bound.exclusive(position), Range.Bound.unbounded()),
+                Limit.limit().count(pageSize));
+            if (entries == null || entries.isEmpty()) {
+                return position;
+            }
+            Set<String> changed = new LinkedHashSet<>();
+            for (MapRecord<String, Object, Object> entry : entries) {
+                changed.add(String.valueOf(entry.getValue().get(PlanOutbox.OBJECT_ID)));
+                position = entry.getId().getValue();
+            }
+            List<String> ids = List.copyOf(changed);
+            List<String> current = planService.getAll(ids);
+            List<String> deletes = new ArrayList<>();
+            List<PlanDelta> deltas = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                if (current.get(i) == null) {
+                    deletes.add(ids.get(i));
+                } else {
+                    deltas.add(PlanDelta.full(mapper.readTree(current.get(i))));
+                }
+            }
+            failures.addAndGet(indexer.index(target, deletes, deltas).size());
+            replayed.addAndGet(ids.size());
+        }
+    }
+
+    /**
+     * The start position: the stream's last generated id, which is kept
+     * even when the stream is empty; 0-0 if it does not exist yet.
+     */
+    private String lastStreamId() {
+        Map<String, Object> info = streamInfo();
+        if (info == null) {
+            return "0-0";
+        }
+        Object lastGenerated = info.get("last-generated-id");
+        if (lastGenerated != null) {
+            return text(lastGenerated);
+        }
+        List<MapRecord<String, Object, Object>> last = redisTemplate.opsForStream()
+            .reverseRange(stream, Range.unbounded(), Limit.limit().count(1));
+        return last == null || last.isEmpty() ? "0-0" : last.get(0).getId().getValue();
+    }
+
+    /**
+     * Entries after 'from' must still be in the stream, or changes would be
+     * missed. Redis 7 reports the highest trimmed id (max-deleted-entry-id),
+     * which covers a stream that was empty at the start; older servers fall
+     * back to comparing with the first entry.
+     */
+    private void checkNotTrimmed(String from) {
+        Map<String, Object> info = streamInfo();
+        if (info == null) {
+            return;
+        }
+        boolean trimmed;
+        Object maxDeleted = info.get("max-deleted-entry-id");
+        if (maxDeleted != null) {
+            trimmed = PlanOutbox.compareIds(text(maxDeleted), from) > 0;
+        } else {
+            List<MapRecord<String, Object, Object>> first = redisTemplate.opsForStream()
+                .range(stream, Range.unbounded(), Limit.limit().count(1));
+            trimmed = !"0-0".equals(from) && first != null && !first.isEmpty()
+                && PlanOutbox.compareIds(first.get(0).getId().getValue(), from) > 0;
+        }
+        if (trimmed) {
+            throw new IllegalStateException("Outbox trimmed past " + from
+                + " during the rebuild; raise plan.outbox.retention and run it again");
+        }
+    }
+
+    // XINFO STREAM as field -> raw value; null if the stream does not exist
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> streamInfo() {
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(stream))) {
+            return null;
+        }
+        List<Object> reply = (List<Object>) redisTemplate.execute((RedisCallback<Object>) connection ->
+            connection.execute("XINFO", "STREAM".getBytes(StandardCharsets.UTF_8),
+                stream.getBytes(StandardCharsets.UTF_8)));
+        Map<String, Object> info = new HashMap<>();
+        for (int i = 0; reply != null && i + 1 < reply.size(); i += 2) {
+            info.put(text(reply.get(i)), reply.get(i + 1));
+        }
+        return info;
+    }
+
+    private static String text(Object value) {
+        return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    /**
+     * Points each alias at its new index in one update, removing it from the
+     * previous one(s); a concrete index still called "plans" is dropped.
+     *
+     * @return the indices that held the aliases before
+     */
+    private List<String> swapAliases() throws IOException {
+        List<String> previous = new ArrayList<>();
+        List<String> concrete = new ArrayList<>();
+        for (String index : indices()) {
+            String alias = alias(index);
+            if (es.indices().existsAlias(a -> a.name(alias)).value()) {
+                GetAliasResponse current = es.indices().getAlias(a -> a.name(alias));
+                previous.addAll(current.result().keySet());
+            } else if (es.indices().exists(e -> e.index(alias)).value()) {
+                concrete.add(alias);
+            }
+        }
+        es.indices().updateAliases(u -> {
+            for (String index : indices()) {
+                u.actions(a -> a.add(add -> add.index(index).alias(alias(index))));
+            }
+            for (String index : previous) {
+                String alias = index.startsWith(IndexLayout.NESTED_INDEX + "-")
+                    ? IndexLayout.NESTED_INDEX : PlanIndexer.INDEX;
+                u.actions(a -> a.remove(r -> r.index(index).alias(alias)));
+            }
+            for (String index : concrete) {
+                u.actions(a -> a.removeIndex(r -> r.index(index)));
+            }
+            return u;
+        });
+        if (!concrete.isEmpty()) {
+            System.out.println("🔁 Dropped the pre-alias index " + concrete);
+        }
+        return previous;
+    }
+
+    // the indices being built, join layout first
+    private List<String> indices() {
+        List<String> indices = new ArrayList<>(2);
+        if (target.join() != null) {
+            indices.add(target.join());
+        }
+        if (target.nested() != null) {
+            indices.add(target.nested());
+        }
+        return indices;
+    }
+
+    private String alias(String index) {
+        return index.equals(target.nested()) ? IndexLayout.NESTED_INDEX : PlanIndexer.INDEX;
+    }
+
+    private Status snapshot(String error) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+        return new Status(state, String.join(",", indices()), plans.get(), documents.get(), failures.get(), replayed.get(),
+            documents.get() * 1000 / elapsed, elapsed, error);
+    }
+
+    private static void shutdown(ExecutorService workers) throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(1, TimeUnit.HOURS)) {
+            workers.shutdownNow();
+            throw new IllegalStateException("Reindex workers did not finish");
+        }
+    }
+}
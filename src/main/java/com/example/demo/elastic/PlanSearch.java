@@ -0,0 +1,347 @@
+package com.example.demo.elastic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+
+/**
+ * Filtered search over the plans index with point-in-time paging.
+ *
+ * A filter is a JSON object; every given key must match:
+ * <pre>
+ * { "_org": "example.com", "planType": "inNetwork", "objectType": "plan",
+ *   "objectId": "...", "name": "...",
+ *   "copay":      { "gte": 0, "lte": 50 },
+ *   "deductible": { "gt": 100 },
+ *   "hasChild":  { "type": "planserviceCostShares", "filter": { ... } },
+ *   "hasParent": { "type": "plan", "filter": { ... } } }
+ * </pre>
+ * With the nested layout (see IndexLayout) hits are whole plans: plain
+ * fields match the plan, hasChild "planCostShares" / "linkedPlanServices"
+ * match its cost shares / one of its services, and inside the latter
+ * "linkedService" / "planserviceCostShares"; hasParent is not available.
+ *
+ * The first page opens a point-in-time; every page returns at most 'size'
+ * hits and, while there may be more, an opaque cursor holding the PIT id,
+ * the search_after position and the filter. Each page renews the PIT's
+ * keep-alive and the last page closes it; abandoned cursors simply expire.
+ * Identical requests within {@code elastic.search.cache-ttl-ms} are
+ * answered from memory.
+ */
+@Service
+public class PlanSearch {
+
+    static final int MAX_PAGE_SIZE = 500;
+
+    /** One page of hits; 'cursor' is null on the last page. */
+    public record Page(List<Map<String, Object>> hits, String cursor) {}
+
+    private record Cached(Page page, long expiresAt) {}
+
+    private final ElasticsearchClient es;
+    private final IndexLayout layout;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String keepAlive;
+    private final long cacheTtlMs;
+    private final Map<String, Cached> cache;
+
+    public PlanSearch(
+        ElasticsearchClient es,
+        IndexLayout layout,
+        @Value("${elastic.search.keep-alive:1m}") String keepAlive,
+        @Value("${elastic.search.cache-ttl-ms:2000}") long cacheTtlMs,
+        @Value("${elastic.search.cache-max-size:1000}") int cacheMaxSize
+    ) {
+        this.es = es;
+        this.layout = layout;
+        this.keepAlive = keepAlive;
+        this.cacheTtlMs = cacheTtlMs;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > cacheMaxSize;
+            }
+        });
+    }
+
+    /**
+     * Search request body: {"filter": {...}, "size": 50} for the first page,
+     * {"cursor": "...", "size": 50} for the following ones.
+     */
+    public Page search(String requestJson) throws IOException {
+        JsonNode request;
+        try {
+            request = mapper.readTree(requestJson == null || requestJson.isBlank() ? "{}" : requestJson);
+        } catch (JsonProcessingException e) {
+            throw new SearchException("Invalid search request: " + e.getOriginalMessage(), 400);
+        }
+        String cursor = request.hasNonNull("cursor") ? request.get("cursor").asText() : null;
+        return search(request.get("filter"), request.path("size").asInt(50), cursor);
+    }
+
+    /**
+     * Runs the first page of 'filter', or continues from 'cursor' (the
+     * filter is then taken from the cursor).
+     */
+    public Page search(JsonNode filter, int size, String cursor) throws IOException {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new SearchException("size must be between 1 and " + MAX_PAGE_SIZE, 400);
+        }
+        String cacheKey = size + "|" + (cursor != null ? cursor : String.valueOf(filter));
+        if (cacheTtlMs > 0) {
+            Cached cached = cache.get(cacheKey);
+            if (cached != null && System.currentTimeMillis() < cached.expiresAt()) {
+                return cached.page();
+            }
+        }
+
+        String pitId = null;
+        List<FieldValue> searchAfter = null;
+        if (cursor != null) {
+            JsonNode state = decodeCursor(cursor);
+            pitId = state.path("pit").asText();
+            filter = state.path("filter");
+            searchAfter = new ArrayList<>();
+            for (JsonNode value : state.path("after")) {
+                searchAfter.add(toFieldValue(value));
+            }
+        }
+        // validate the filter before opening anything
+        Query query = toQuery(filter == null || filter.isNull() ? mapper.createObjectNode() : filter);
+        if (pitId == null) {
+            String index = layout.searchNested() ? IndexLayout.NESTED_INDEX : PlanIndexer.INDEX;
+            pitId = es.openPointInTime(o -> o.index(index).keepAlive(k -> k.time(keepAlive))).id();
+        }
+
+        SearchResponse<JsonNode> response;
+        try {
+            String pit = pitId;
+            List<FieldValue> after = searchAfter;
+            response = es.search(s -> {
+                s.pit(p -> p.id(pit).keepAlive(k -> k.time(keepAlive)))
+                    .query(query)
+                    .source(src -> src.filter(f -> f.excludes(PlanIndexer.MANIFEST)))
+                    .size(size)
+                    // _shard_doc is the cheapest unique tiebreaker within a PIT
+                    .sort(so -> so.field(f -> f.field("_shard_doc").order(SortOrder.Asc)))
+                    .trackTotalHits(t -> t.enabled(false));
+                if (after != null) {
+                    s.searchAfter(after);
+                }
+                return s;
+            }, JsonNode.class);
+        } catch (ElasticsearchException e) {
+            if (cursor != null && e.status() == 404) {
+                throw new SearchException("Cursor expired, start the search again", 410);
+            }
+            if (cursor == null) {
+                closePit(pitId);
+            }
+            throw e;
+        } catch (IOException e) {
+            if (cursor == null) {
+                closePit(pitId);
+            }
+            throw e;
+        }
+
+        List<Map<String, Object>> hits = new ArrayList<>();
+        List<FieldValue> lastSort = null;
+        for (Hit<JsonNode> hit : response.hits().hits()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", hit.id());
+            item.put("source", hit.source());
+            hits.add(item);
+            lastSort = hit.sort();
+        }
+
+        String next = null;
+        String nextPit = response.pitId() != null ? response.pitId() : pitId;
+        if (hits.size() == size && lastSort != null) {
+            next = encodeCursor(nextPit, lastSort, filter);
+        } else {
+            // last page: nothing will continue from this PIT
+            closePit(nextPit);
+        }
+        Page page = new Page(hits, next);
+        if (cacheTtlMs > 0) {
+            cache.put(cacheKey, new Cached(page, System.currentTimeMillis() + cacheTtlMs));
+        }
+        return page;
+    }
+
+    // a PIT that fails to close still expires after its keep-alive
+    private void closePit(String pitId) {
+        try {
+            es.closePointInTime(c -> c.id(pitId));
+        } catch (IOException | ElasticsearchException e) {
+            System.out.println("⚠️ Could not close point-in-time: " + e.getMessage());
+        }
+    }
+
+    /* ----- filter -> query ----- */
+
+    Query toQuery(JsonNode filter) {
+        return toQuery(filter, "");
+    }
+
+    /**
+     * @param prefix path of the object being matched in the nested layout,
+     *               "" for the plan (and always in the join layout)
+     */
+    private Query toQuery(JsonNode filter, String prefix) {
+        if (!filter.isObject()) {
+            throw new SearchException("filter must be a JSON object", 400);
+        }
+        BoolQuery.Builder bool = new BoolQuery.Builder();
+        Iterator<Map.Entry<String, JsonNode>> fields = filter.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            String path = prefix + name;
+            JsonNode value = field.getValue();
+            switch (name) {
+                case "_org", "objectType", "objectId", "name" ->
+                    bool.filter(f -> f.term(t -> t.field(path).value(text(name, value))));
+                // planType is not mapped explicitly in older indices (text), match works for both
+                case "planType" ->
+                    bool.filter(f -> f.match(m -> m.field(path).query(text(name, value))));
+                case "copay", "deductible" ->
+                    bool.filter(f -> f.range(r -> {
+                        r.field(path);
+                        range(name, value, "gt", v -> r.gt(v));
+                        range(name, value, "gte", v -> r.gte(v));
+                        range(name, value, "lt", v -> r.lt(v));
+                        range(name, value, "lte", v -> r.lte(v));
+                        return r;
+                    }));
+                case "hasChild" -> {
+                    String type = text("hasChild.type", value.path("type"));
+                    if (layout.searchNested()) {
+                        bool.filter(nestedChild(prefix, type, value.path("filter")));
+                    } else {
+                        Query inner = toQuery(value.path("filter"));
+                        bool.filter(f -> f.hasChild(h -> h.type(type).query(inner)));
+                    }
+                }
+                case "hasParent" -> {
+                    if (layout.searchNested()) {
+                        throw new SearchException("hasParent is not supported by the nested index layout", 400);
+                    }
+                    Query inner = toQuery(value.path("filter"));
+                    String type = text("hasParent.type", value.path("type"));
+                    bool.filter(f -> f.hasParent(h -> h.parentType(type).query(inner)));
+                }
+                default -> throw new SearchException("Unsupported filter field: " + name, 400);
+            }
+        }
+        return Query.of(q -> q.bool(bool.build()));
+    }
+
+    /**
+     * hasChild in the nested layout: a sub-object of the one at 'prefix',
+     * a nested query for linked plan services.
+     */
+    private Query nestedChild(String prefix, String type, JsonNode filter) {
+        boolean valid = prefix.isEmpty()
+            ? type.equals("planCostShares") || type.equals("linkedPlanServices")
+            : prefix.equals("linkedPlanServices.")
+                && (type.equals("linkedService") || type.equals("planserviceCostShares"));
+        if (!valid) {
+            throw new SearchException("Unsupported hasChild type in the nested index layout: " + type, 400);
+        }
+        Query inner = toQuery(filter, prefix + type + ".");
+        if (type.equals("linkedPlanServices")) {
+            return Query.of(q -> q.nested(n -> n.path(type).query(inner)));
+        }
+        return inner;
+    }
+
+    private static String text(String name, JsonNode value) {
+        if (!value.isTextual() || value.asText().isEmpty()) {
+            throw new SearchException("'" + name + "' must be a non-empty string", 400);
+        }
+        return value.asText();
+    }
+
+    private static void range(String name, JsonNode bounds, String op,
+                              Consumer<JsonData> set) {
+        JsonNode bound = bounds.get(op);
+        if (bound == null) {
+            return;
+        }
+        if (!bound.isNumber()) {
+            throw new SearchException("'" + name + "." + op + "' must be a number", 400);
+        }
+        set.accept(JsonData.of(bound.numberValue()));
+    }
+
+    /* ----- cursor ----- */
+
+    String encodeCursor(String pitId, List<FieldValue> after, JsonNode filter) {
+        ObjectNode state = mapper.createObjectNode();
+        state.put("pit", pitId);
+        ArrayNode values = state.putArray("after");
+        for (FieldValue value : after) {
+            if (value.isLong()) {
+                values.add(value.longValue());
+            } else if (value.isDouble()) {
+                values.add(value.doubleValue());
+            } else if (value.isBoolean()) {
+                values.add(value.booleanValue());
+            } else {
+                values.add(value.stringValue());
+            }
+        }
+        state.set("filter", filter);
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    JsonNode decodeCursor(String cursor) {
+        try {
+            return mapper.readTree(Base64.getUrlDecoder().decode(cursor));
+        } catch (Exception e) {
+            throw new SearchException("Malformed cursor", 400);
+        }
+    }
+
+    static FieldValue toFieldValue(JsonNode value) {
+        if (value.isIntegralNumber()) {
+            return FieldValue.of(value.longValue());
+        }
+        if (value.isNumber()) {
+            return FieldValue.of(value.doubleValue());
+        }
+        if (value.isBoolean()) {
+            return FieldValue.of(value.booleanValue());
+        }
+        return FieldValue.of(value.asText());
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.demo.elastic;
+
+/**
+ * A search that cannot be run: malformed filter or cursor (400), or a
+ * cursor whose point-in-time has expired (410).
+ */
+public class SearchException extends RuntimeException {
+
+    private final int status;
+
+    public SearchException(String message, int status) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.demo.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Meters of the request path, the outbox relay and the indexing consumer,
+ * exported at /actuator/prometheus:
+ *
+ * <ul>
+ *   <li>{@code plan.request.stage} – token, validate, merge (tags stage, outcome)</li>
+ *   <li>{@code plan.redis} – Redis I/O per operation (tags op, outcome)</li>
+ *   <li>{@code plan.outbox.publish} / {@code plan.outbox.published} – confirmed batches and messages</li>
+ *   <li>{@code plan.consumer.decode}, {@code plan.consumer.messages}, {@code plan.consumer.failures}</li>
+ *   <li>{@code plan.index.bulk}, {@code plan.index.documents}, {@code plan.index.failures}</li>
+ *   <li>{@code plan.indexing.lag} – from the change being stored (message timestamp)
+ *       until Elasticsearch acknowledged it</li>
+ * </ul>
+ * Stage timers and the lag publish histogram buckets, so percentiles can be
+ * aggregated across instances.
+ */
+@Component
+public class PlanMetrics {
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+
+    private final MeterRegistry registry;
+    private final Timer lag;
+
+    public PlanMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.lag = Timer.builder("plan.indexing.lag")
+            .description("Time from the plan change being stored to Elasticsearch acknowledging it")
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofMillis(5))
+            .maximumExpectedValue(Duration.ofMinutes(10))
+            .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /* ----- request ----- */
+
+    /**
+     * Runs one request stage and times it under {@code plan.request.stage{stage}}.
+     */
+    public <T> T stage(String stage, Callable<T> work) throws Exception {
+        Timer.Sample sample = start();
+        boolean ok = false;
+        try {
+            T result = work.call();
+            ok = true;
+            return result;
+        } finally {
+            sample.stop(histogramTimer("plan.request.stage", "stage", stage, ok));
+        }
+    }
+
+    /**
+     * Runs one Redis call and times it under {@code plan.redis{op}}.
+     */
+    public <T> T redis(String op, Supplier<T> call) {
+        Timer.Sample sample = start();
+        boolean ok = false;
+        try {
+            T result = call.get();
+            ok = true;
+            return result;
+        } finally {
+            sample.stop(histogramTimer("plan.redis", "op", op, ok));
+        }
+    }
+
+    /* ----- outbox relay ----- */
+
+    public void outboxPublished(Timer.Sample sample, int messages, boolean ok) {
+        sample.stop(Timer.builder("plan.outbox.publish").tag("outcome", ok ? SUCCESS : ERROR).register(registry));
+        if (ok) {
+            Counter.builder("plan.outbox.published").register(registry).increment(messages);
+        }
+    }
+
+    /* ----- consumer ----- */
+
+    public void consumerDecoded(Timer.Sample sample, int messages, int unreadable) {
+        sample.stop(Timer.builder("plan.consumer.decode").register(registry));
+        Counter.builder("plan.consumer.messages").register(registry).increment(messages);
+        if (unreadable > 0) {
+            consumerFailure("decode", unreadable);
+        }
+    }
+
+    public void consumerFailure(String type, int count) {
+        Counter.builder("plan.consumer.failures").tag("type", type).register(registry).increment(count);
+    }
+
+    public void indexed(Timer.Sample sample, int documents, int failures) {
+        sample.stop(Timer.builder("plan.index.bulk").register(registry));
+        Counter.builder("plan.index.documents").register(registry).increment(documents);
+        if (failures > 0) {
+            Counter.builder("plan.index.failures").register(registry).increment(failures);
+        }
+    }
+
+    /**
+     * @param storedAtMillis the timestamp carried by the change message
+     */
+    public void indexingLag(long storedAtMillis) {
+        long lagMillis = System.currentTimeMillis() - storedAtMillis;
+        if (storedAtMillis > 0 && lagMillis >= 0) {
+            lag.record(lagMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Timer histogramTimer(String name, String tag, String value, boolean ok) {
+        return Timer.builder(name)
+            .tag(tag, value)
+            .tag("outcome", ok ? SUCCESS : ERROR)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+}
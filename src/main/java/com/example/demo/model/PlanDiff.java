@@ -0,0 +1,78 @@
+package com.example.demo.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+/**
+ * Structural difference between two versions of a plan, by child objectId.
+ *
+ * An object counts as changed when its own fields or its parent changed;
+ * edits inside a child do not mark its ancestors. This matches the
+ * per-object documents PlanIndexer writes, so an update only needs to
+ * (re)index {@link #changed()} and delete {@link #removed()}.
+ */
+public final class PlanDiff {
+
+    /** An object that disappeared, with the objectId of its former parent (null for the root). */
+    public record Removed(String objectId, String parentId) {}
+
+    private final Set<String> changed = new LinkedHashSet<>();
+    private final List<Removed> removed = new ArrayList<>();
+
+    private PlanDiff() {}
+
+    public static PlanDiff between(JSONObject previous, JSONObject next) {
+        Map<String, PlanGraph.Node> before = PlanGraph.of(previous, "root").nodes();
+        Map<String, PlanGraph.Node> after = PlanGraph.of(next, "root").nodes();
+        PlanDiff diff = new PlanDiff();
+
+        for (PlanGraph.Node node : after.values()) {
+            PlanGraph.Node old = before.get(node.key());
+            if (old == null
+                || !old.body().equals(node.body())
+                || !String.valueOf(old.parentKey()).equals(String.valueOf(node.parentKey()))) {
+                diff.changed.add(node.objectId());
+            }
+        }
+        for (PlanGraph.Node old : before.values()) {
+            if (!after.containsKey(old.key())) {
+                PlanGraph.Node parent = old.parentKey() == null ? null : before.get(old.parentKey());
+                diff.removed.add(new Removed(old.objectId(), parent == null ? null : parent.objectId()));
+            }
+        }
+        return diff;
+    }
+
+    public Set<String> changed() {
+        return changed;
+    }
+
+    public List<Removed> removed() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && removed.isEmpty();
+    }
+
+    /** Message form: {"index":[ids], "delete":[{"id":..,"parent":..}]}. */
+    public Map<String, Object> toMap() {
+        List<Map<String, Object>> deletes = new ArrayList<>();
+        for (Removed r : removed) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", r.objectId());
+            entry.put("parent", r.parentId());
+            deletes.add(entry);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("index", List.copyOf(changed));
+        map.put("delete", deletes);
+        return map;
+    }
+}
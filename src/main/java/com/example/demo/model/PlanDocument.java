@@ -0,0 +1,60 @@
+package com.example.demo.model;
+
+import org.json.JSONObject;
+
+import com.example.demo.service.ETags;
+
+/**
+ * A plan as it travels through one request: parsed once, then shared by
+ * schema validation, id extraction, merge, ETag computation, storage and
+ * message publication.
+ *
+ * The serialized text and the ETag are produced lazily and at most once.
+ * Callers must not modify {@link #tree()} after {@link #json()} was read;
+ * build a new document with {@link #of(JSONObject)} instead.
+ */
+public final class PlanDocument {
+
+    private final JSONObject tree;
+    private String json;
+    private String eTag;
+
+    private PlanDocument(JSONObject tree, String json) {
+        this.tree = tree;
+        this.json = json;
+    }
+
+    /** Parses request/storage text; the original text is kept as the serialized form. */
+    public static PlanDocument parse(String json) {
+        return new PlanDocument(new JSONObject(json), json);
+    }
+
+    /** Wraps an already built tree, e.g. the result of a merge. */
+    public static PlanDocument of(JSONObject tree) {
+        return new PlanDocument(tree, null);
+    }
+
+    public JSONObject tree() {
+        return tree;
+    }
+
+    /** The plan's objectId, or null if missing or blank. */
+    public String objectId() {
+        String objectId = tree.optString("objectId", null);
+        return objectId == null || objectId.isBlank() ? null : objectId;
+    }
+
+    public String json() {
+        if (json == null) {
+            json = tree.toString();
+        }
+        return json;
+    }
+
+    public String eTag() {
+        if (eTag == null) {
+            eTag = ETags.of(json());
+        }
+        return eTag;
+    }
+}
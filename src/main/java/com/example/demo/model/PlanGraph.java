@@ -0,0 +1,166 @@
+package com.example.demo.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A plan decomposed into its identified objects (anything carrying both
+ * objectId and objectType). The root is keyed by the plan key, every child
+ * by {@code node:<root key>/<objectType>:<objectId>}: children belong to
+ * the plan that contains them, so two plans embedding the same object
+ * (e.g. one linkedService) never share or overwrite each other's node.
+ *
+ * Every node keeps only its own fields in {@code body}; child objects are
+ * replaced by references in {@code relations}: property name to either a
+ * single child key or a JSON array of child keys (array order preserved).
+ */
+public final class PlanGraph {
+
+    public record Node(String key, String objectId, String objectType, String parentKey,
+                       String body, Map<String, String> relations) {}
+
+    private final String rootKey;
+    private final Map<String, Node> nodes = new LinkedHashMap<>();   // children before their parents
+
+    private PlanGraph(String rootKey) {
+        this.rootKey = rootKey;
+    }
+
+    /**
+     * Decomposes 'plan'; the root is stored under 'rootKey', children under
+     * {@link #childKey}.
+     */
+    public static PlanGraph of(JSONObject plan, String rootKey) {
+        PlanGraph graph = new PlanGraph(rootKey);
+        graph.add(plan, rootKey, null);
+        return graph;
+    }
+
+    public static String keyOf(JSONObject obj) {
+        return obj.getString("objectType") + ":" + obj.getString("objectId");
+    }
+
+    /**
+     * Key of a child node of the plan stored under 'rootKey'; outside the
+     * plan key namespace, so a SCAN over plans does not see it.
+     */
+    public static String childKey(String rootKey, JSONObject obj) {
+        return "node:" + rootKey + "/" + keyOf(obj);
+    }
+
+    static boolean isIdentified(Object value) {
+        return value instanceof JSONObject obj && obj.has("objectId") && obj.has("objectType");
+    }
+
+    static boolean isIdentifiedArray(Object value) {
+        if (!(value instanceof JSONArray arr) || arr.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < arr.length(); i++) {
+            if (!isIdentified(arr.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(JSONObject obj, String key, String parentKey) {
+        JSONObject body = new JSONObject();
+        Map<String, String> relations = new LinkedHashMap<>();
+
+        for (String prop : obj.keySet()) {
+            Object value = obj.get(prop);
+            if (isIdentified(value)) {
+                JSONObject child = (JSONObject) value;
+                String childKey = childKey(rootKey, child);
+                relations.put(prop, childKey);
+                add(child, childKey, key);
+            } else if (isIdentifiedArray(value)) {
+                JSONArray children = (JSONArray) value;
+                JSONArray childKeys = new JSONArray();
+                for (int i = 0; i < children.length(); i++) {
+                    JSONObject child = children.getJSONObject(i);
+                    String childKey = childKey(rootKey, child);
+                    childKeys.put(childKey);
+                    add(child, childKey, key);
+                }
+                relations.put(prop, childKeys.toString());
+            } else {
+                body.put(prop, value);
+            }
+        }
+
+        nodes.put(key, new Node(key, obj.optString("objectId", null), obj.optString("objectType", null),
+            parentKey, body.toString(), Collections.unmodifiableMap(relations)));
+    }
+
+    public String rootKey() {
+        return rootKey;
+    }
+
+    public Map<String, Node> nodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * Rebuilds the plan from this graph. Produces exactly what
+     * {@link #assemble(String, Map, Map)} produces from the stored node
+     * bodies and relations, so both sides agree on the serialized form.
+     */
+    public JSONObject assemble() {
+        Map<String, String> bodies = new LinkedHashMap<>();
+        Map<String, Map<String, String>> relations = new LinkedHashMap<>();
+        for (Node node : nodes.values()) {
+            bodies.put(node.key(), node.body());
+            relations.put(node.key(), node.relations());
+        }
+        return assemble(rootKey, bodies, relations);
+    }
+
+    /**
+     * Rebuilds an object from node bodies and relation maps (as read back
+     * from storage). Returns null if the node itself is missing.
+     *
+     * @throws IllegalStateException if a referenced child is missing, rather
+     *         than returning an incomplete plan
+     */
+    public static JSONObject assemble(String key, Map<String, String> bodies,
+                                      Map<String, Map<String, String>> relations) {
+        String body = bodies.get(key);
+        if (body == null) {
+            return null;
+        }
+        JSONObject obj = new JSONObject(body);
+        // sorted, so the result does not depend on the order storage returns fields in
+        Map<String, String> refs = new TreeMap<>(relations.getOrDefault(key, Map.of()));
+
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            String target = ref.getValue();
+            if (target.startsWith("[")) {
+                JSONArray childKeys = new JSONArray(target);
+                JSONArray children = new JSONArray();
+                for (int i = 0; i < childKeys.length(); i++) {
+                    children.put(child(childKeys.getString(i), bodies, relations));
+                }
+                obj.put(ref.getKey(), children);
+            } else {
+                obj.put(ref.getKey(), child(target, bodies, relations));
+            }
+        }
+        return obj;
+    }
+
+    private static JSONObject child(String key, Map<String, String> bodies,
+                                    Map<String, Map<String, String>> relations) {
+        JSONObject child = assemble(key, bodies, relations);
+        if (child == null) {
+            throw new IllegalStateException("Plan graph node missing: " + key);
+        }
+        return child;
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.demo.patch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies PATCH documents to plans. All operations leave the target
+ * untouched and return a new tree; unchanged subtrees are shared with the
+ * target, so callers must treat both as read-only afterwards.
+ *
+ * <ul>
+ *   <li>{@link #mergeById} – default for application/json: objects merge
+ *       recursively, arrays of identified objects merge item by item
+ *       (matched on objectId through a hash index, new items appended),
+ *       null removes a field, anything else replaces.</li>
+ *   <li>{@link #mergePatch} – RFC 7396, application/merge-patch+json.</li>
+ *   <li>{@link #jsonPatch} – RFC 6902, application/json-patch+json.</li>
+ * </ul>
+ */
+@Component
+public class JsonMerger {
+
+    public static final String MERGE_PATCH = "application/merge-patch+json";
+    public static final String JSON_PATCH = "application/json-patch+json";
+
+    private static final MediaType MERGE_PATCH_TYPE = MediaType.parseMediaType(MERGE_PATCH);
+    private static final MediaType JSON_PATCH_TYPE = MediaType.parseMediaType(JSON_PATCH);
+
+    /**
+     * Applies 'patchBody' according to its media type, compared without
+     * case and parameters; a missing or unparsable type gets the default.
+     */
+    public JSONObject apply(JSONObject target, String patchBody, String contentType) {
+        MediaType type = mediaType(contentType);
+        if (type != null && type.equalsTypeAndSubtype(JSON_PATCH_TYPE)) {
+            return jsonPatch(target, new JSONArray(patchBody));
+        }
+        if (type != null && type.equalsTypeAndSubtype(MERGE_PATCH_TYPE)) {
+            return mergePatch(target, new JSONObject(patchBody));
+        }
+        return mergeById(target, new JSONObject(patchBody));
+    }
+
+    private static MediaType mediaType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        try {
+            return MediaType.parseMediaType(contentType);
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+    }
+
+    // =========================================
+    // objectId-aware merge
+    // =========================================
+    public JSONObject mergeById(JSONObject source, JSONObject patch) {
+        JSONObject result = shallowCopy(source);
+        for (String key : patch.keySet()) {
+            Object value = patch.get(key);
+            Object current = source.opt(key);
+
+            if (value == JSONObject.NULL) {
+                result.remove(key);
+            } else if (value instanceof JSONObject obj && current instanceof JSONObject cur) {
+                result.put(key, mergeById(cur, obj));
+            } else if (value instanceof JSONArray arr && current instanceof JSONArray cur
+                       && isIdentified(cur) && isIdentified(arr)) {
+                result.put(key, mergeArrayById(cur, arr));
+            } else {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    // Linear in |source| + |patch|: one pass to index, one to merge.
+    private JSONArray mergeArrayById(JSONArray source, JSONArray patch) {
+        Map<String, Integer> positions = new HashMap<>(source.length() * 2);
+        List<Object> items = new ArrayList<>(source.length() + patch.length());
+        for (int i = 0; i < source.length(); i++) {
+            JSONObject item = source.getJSONObject(i);
+            positions.put(item.getString("objectId"), i);
+            items.add(item);
+        }
+
+        for (int i = 0; i < patch.length(); i++) {
+            JSONObject item = patch.getJSONObject(i);
+            Integer pos = positions.get(item.getString("objectId"));
+            if (pos == null) {
+                positions.put(item.getString("objectId"), items.size());
+                items.add(item);
+            } else {
+                items.set(pos, mergeById((JSONObject) items.get(pos), item));
+            }
+        }
+        return new JSONArray(items);
+    }
+
+    private static boolean isIdentified(JSONArray arr) {
+        for (int i = 0; i < arr.length(); i++) {
+            if (!(arr.get(i) instanceof JSONObject obj) || !(obj.opt("objectId") instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // =========================================
+    // RFC 7396 JSON Merge Patch
+    // =========================================
+    public JSONObject mergePatch(JSONObject target, JSONObject patch) {
+        JSONObject result = shallowCopy(target);
+        for (String key : patch.keySet()) {
+            Object value = patch.get(key);
+            if (value == JSONObject.NULL) {
+                result.remove(key);
+            } else if (value instanceof JSONObject obj) {
+                Object current = target.opt(key);
+                result.put(key, mergePatch(current instanceof JSONObject cur ? cur : new JSONObject(), obj));
+            } else {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    // =========================================
+    // RFC 6902 JSON Patch
+    // =========================================
+    public JSONObject jsonPatch(JSONObject target, JSONArray operations) {
+        JSONObject doc = (JSONObject) deepCopy(target);
+
+        for (int i = 0; i < operations.length(); i++) {
+            JSONObject op = operations.getJSONObject(i);
+            String path = op.getString("path");
+
+            switch (op.getString("op")) {
+                case "add" -> add(doc, path, deepCopy(op.get("value")));
+                case "remove" -> remove(doc, path);
+                case "replace" -> {
+                    remove(doc, path);
+                    add(doc, path, deepCopy(op.get("value")));
+                }
+                case "move" -> {
+                    String from = op.getString("from");
+                    if (path.startsWith(from + "/")) {
+                        throw new PatchException("Cannot move " + from + " into its own child " + path);
+                    }
+                    add(doc, path, remove(doc, from));
+                }
+                case "copy" -> add(doc, path, deepCopy(get(doc, op.getString("from"))));
+                case "test" -> {
+                    if (!same(get(doc, path), op.get("value"))) {
+                        throw new PatchException("Test failed at " + path);
+                    }
+                }
+                default -> throw new PatchException("Unknown op: " + op.getString("op"));
+            }
+        }
+        return doc;
+    }
+
+    private static Object get(Object doc, String path) {
+        Object node = doc;
+        for (String token : tokens(path)) {
+            node = child(node, token, path);
+        }
+        return node;
+    }
+
+    private static void add(JSONObject doc, String path, Object value) {
+        List<String> tokens = tokens(path);
+        if (tokens.isEmpty()) {
+            throw new PatchException("Cannot replace the whole document");
+        }
+        Object parent = parent(doc, tokens, path);
+        String last = tokens.get(tokens.size() - 1);
+
+        if (parent instanceof JSONObject obj) {
+            obj.put(last, value);
+        } else if (parent instanceof JSONArray arr) {
+            int index = last.equals("-") ? arr.length() : index(last, arr.length(), path);
+            List<Object> items = listOf(arr);
+            items.add(index, value);
+            replaceContents(arr, items);
+        } else {
+            throw new PatchException("Parent of " + path + " is not a container");
+        }
+    }
+
+    private static Object remove(JSONObject doc, String path) {
+        List<String> tokens = tokens(path);
+        if (tokens.isEmpty()) {
+            throw new PatchException("Cannot remove the whole document");
+        }
+        Object parent = parent(doc, tokens, path);
+        String last = tokens.get(tokens.size() - 1);
+
+        if (parent instanceof JSONObject obj) {
+            if (!obj.has(last)) {
+                throw new PatchException("No value at " + path);
+            }
+            return obj.remove(last);
+        }
+        if (parent instanceof JSONArray arr) {
+            return arr.remove(index(last, arr.length() - 1, path));
+        }
+        throw new PatchException("Parent of " + path + " is not a container");
+    }
+
+    private static Object parent(JSONObject doc, List<String> tokens, String path) {
+        Object node = doc;
+        for (String token : tokens.subList(0, tokens.size() - 1)) {
+            node = child(node, token, path);
+        }
+        return node;
+    }
+
+    private static Object child(Object node, String token, String path) {
+        if (node instanceof JSONObject obj) {
+            if (!obj.has(token)) {
+                throw new PatchException("No value at " + path);
+            }
+            return obj.get(token);
+        }
+        if (node instanceof JSONArray arr) {
+            return arr.get(index(token, arr.length() - 1, path));
+        }
+        throw new PatchException("No value at " + path);
+    }
+
+    private static int index(String token, int max, String path) {
+        if (!token.matches("0|[1-9][0-9]*")) {
+            throw new PatchException("Invalid array index in " + path);
+        }
+        int index = Integer.parseInt(token);
+        if (index > max) {
+            throw new PatchException("Array index out of bounds in " + path);
+        }
+        return index;
+    }
+
+    // RFC 6901: "/a~1b/~0c" -> ["a/b", "~c"]
+    private static List<String> tokens(String path) {
+        List<String> tokens = new ArrayList<>();
+        if (path.isEmpty()) {
+            return tokens;
+        }
+        if (!path.startsWith("/")) {
+            throw new PatchException("Invalid JSON pointer: " + path);
+        }
+        for (String raw : path.substring(1).split("/", -1)) {
+            tokens.add(raw.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static boolean same(Object a, Object b) {
+        if (a instanceof JSONObject x && b instanceof JSONObject y) {
+            return x.similar(y);
+        }
+        if (a instanceof JSONArray x && b instanceof JSONArray y) {
+            return x.similar(y);
+        }
+        if (a instanceof Number x && b instanceof Number y) {
+            return new JSONArray(List.of(x)).similar(new JSONArray(List.of(y)));
+        }
+        return a.equals(b);
+    }
+
+    // =========================================
+    // Copies
+    // =========================================
+    private static JSONObject shallowCopy(JSONObject source) {
+        JSONObject copy = new JSONObject();
+        for (String key : source.keySet()) {
+            copy.put(key, source.get(key));
+        }
+        return copy;
+    }
+
+    private static List<Object> listOf(JSONArray arr) {
+        List<Object> items = new ArrayList<>(arr.length() + 1);
+        for (int i = 0; i < arr.length(); i++) {
+            items.add(arr.get(i));
+        }
+        return items;
+    }
+
+    private static void replaceContents(JSONArray arr, List<Object> items) {
+        arr.clear();
+        for (Object item : items) {
+            arr.put(item);
+        }
+    }
+
+    private static Object deepCopy(Object value) {
+        if (value instanceof JSONObject obj) {
+            JSONObject copy = new JSONObject();
+            for (String key : obj.keySet()) {
+                copy.put(key, deepCopy(obj.get(key)));
+            }
+            return copy;
+        }
+        if (value instanceof JSONArray arr) {
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < arr.length(); i++) {
+                copy.put(deepCopy(arr.get(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.demo.patch;
+
+/**
+ * A patch document that cannot be applied to the target.
+ */
+public class PatchException extends RuntimeException {
+
+    public PatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.demo.rabbitmq;
+
+import com.example.demo.metrics.PlanMetrics;
+import com.example.demo.service.PlanOutbox;
+import com.example.demo.service.RedisLease;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Moves plan change events from the Redis outbox (see PlanOutbox) to
+ * RabbitMQ.
+ *
+ * Entries are read with XREADGROUP in batches of {@code plan.outbox.batch-size},
+ * published in stream order on one channel with publisher confirms, and
+ * XACKed only after the broker confirmed the whole batch. A failed batch
+ * stays pending and is resent from its first entry, so delivery is
+ * at-least-once and never reordered. Only the instance holding the relay
+ * lease reads, which keeps a single ordered publisher across instances.
+ *
+ * Acknowledged entries stay in the stream (trimmed to
+ * {@code plan.outbox.retention}) so recent history can be replayed. The
+ * trim never reaches an entry that is not yet acknowledged, so a backlog
+ * larger than the retention (a broker outage, a bulk import) is kept in
+ * full until it has been published.
+ */
+@Component
+public class OutboxRelay {
+
+    private static final String GROUP = "relay";
+    // one consumer name for every instance: a new lease holder picks up the
+    // previous holder's pending entries
+    private static final String CONSUMER = "relay";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final PlanOutbox outbox;
+    private final PlanMessagePublisher publisher;
+    private final PlanMessageCodec codec;
+    private final PlanMetrics metrics;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration block;
+    private final long confirmTimeoutMs;
+    private final long retention;
+    private final RedisLease lease;
+
+    private ExecutorService worker;
+    private volatile boolean running;
+
+    public OutboxRelay(
+        RedisTemplate<String, String> redisTemplate,
+        PlanOutbox outbox,
+        PlanMessagePublisher publisher,
+        PlanMessageCodec codec,
+        PlanMetrics metrics,
+        @Value("${plan.outbox.relay.enabled:true}") boolean enabled,
+        @Value("${plan.outbox.batch-size:500}") int batchSize,
+        @Value("${plan.outbox.block-ms:1000}") long blockMs,
+        @Value("${plan.outbox.confirm-timeout-ms:5000}") long confirmTimeoutMs,
+        @Value("${plan.outbox.retention:100000}") long retention,
+        @Value("${plan.outbox.lease-ms:10000}") long leaseMs
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.outbox = outbox;
+        this.publisher = publisher;
+        this.codec = codec;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.block = Duration.ofMillis(blockMs);
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        this.retention = retention;
+        this.lease = new RedisLease(redisTemplate, outbox.stream() + ":relay-lease", Duration.ofMillis(leaseMs));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "outbox-relay");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.submit(this::run);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+    }
+
+    private void run() {
+        boolean groupReady = false;
+        boolean backlog = true;       // re-read pending entries first
+        while (running) {
+            try {
+                if (!groupReady) {
+                    createGroup();
+                    groupReady = true;
+                }
+                if (!lease.acquireOrRenew()) {
+                    backlog = true;
+                    Thread.sleep(lease.ttl().toMillis() / 2);
+                    continue;
+                }
+                List<MapRecord<String, Object, Object>> records = read(backlog);
+                if (records == null || records.isEmpty()) {
+                    backlog = false;
+                    continue;
+                }
+                publish(records);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.out.println("Outbox relay failed, retrying: " + e.getMessage());
+                backlog = true;
+                pause();
+            }
+        }
+    }
+
+    private List<MapRecord<String, Object, Object>> read(boolean backlog) {
+        // "0" = this consumer's delivered-but-unacked entries, ">" = new ones
+        StreamOffset<String> offset = StreamOffset.create(outbox.stream(),
+            backlog ? ReadOffset.from("0") : ReadOffset.lastConsumed());
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        if (!backlog) {
+            options = options.block(block);
+        }
+        return redisTemplate.opsForStream().read(Consumer.from(GROUP, CONSUMER), options, offset);
+    }
+
+    private void publish(List<MapRecord<String, Object, Object>> records) {
+        List<PlanMessagePublisher.Outbound> messages = new ArrayList<>(records.size());
+        List<RecordId> ids = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            messages.add(encode(record.getValue()));
+            ids.add(record.getId());
+        }
+
+        Timer.Sample sample = metrics.start();
+        boolean confirmed = false;
+        try {
+            publisher.sendConfirmed(messages, confirmTimeoutMs);   // throws unless all confirmed
+            confirmed = true;
+        } finally {
+            metrics.outboxPublished(sample, messages.size(), confirmed);
+        }
+
+        redisTemplate.opsForStream().acknowledge(outbox.stream(), GROUP, ids.toArray(RecordId[]::new));
+        trim();
+    }
+
+    /**
+     * Drops the oldest entries beyond the newest 'retention' ones with
+     * XTRIM MINID, bounded by the first entry not yet acknowledged.
+     */
+    private void trim() {
+        String stream = outbox.stream();
+        Long length = redisTemplate.opsForStream().size(stream);
+        if (length == null || length <= retention) {
+            return;
+        }
+        String unacknowledged = firstUnacknowledged();
+        if (unacknowledged == null) {
+            return;
+        }
+        // a few batches per call, so catching up after a long backlog stays cheap
+        int excess = (int) Math.min(length - retention, 2L * batchSize);
+        List<MapRecord<String, Object, Object>> oldest = redisTemplate.opsForStream()
+            .range(stream, Range.unbounded(), Limit.limit().count(excess + 1));
+        if (oldest == null || oldest.isEmpty()) {
+            return;
+        }
+        String retained = oldest.get(oldest.size() - 1).getId().getValue();
+        String minId = PlanOutbox.compareIds(retained, unacknowledged) <= 0 ? retained : unacknowledged;
+        redisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+            bytes(stream), bytes("MINID"), bytes(minId)));
+    }
+
+    /**
+     * The oldest pending entry, or else the last delivered one (everything
+     * before it has been acknowledged); null if nothing was delivered yet.
+     */
+    private String firstUnacknowledged() {
+        PendingMessagesSummary pending = redisTemplate.opsForStream().pending(outbox.stream(), GROUP);
+        if (pending != null && pending.getTotalPendingMessages() > 0) {
+            return pending.minMessageId();
+        }
+        StreamInfo.XInfoGroups groups = redisTemplate.opsForStream().groups(outbox.stream());
+        return groups.stream()
+            .filter(group -> GROUP.equals(group.groupName()))
+            .map(StreamInfo.XInfoGroup::lastDeliveredId)
+            .filter(id -> !"0-0".equals(id))
+            .findFirst()
+            .orElse(null);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private PlanMessagePublisher.Outbound encode(Map<Object, Object> entry) {
+        String objectId = String.valueOf(entry.get(PlanOutbox.OBJECT_ID));
+        Object legacyBody = entry.get(PlanOutbox.BODY);
+        if (legacyBody != null) {
+            return new PlanMessagePublisher.Outbound(objectId, codec.legacy(legacyBody.toString()));
+        }
+        String changes = String.valueOf(entry.get(PlanOutbox.CHANGES));
+        return new PlanMessagePublisher.Outbound(objectId, codec.encode(
+            String.valueOf(entry.get(PlanOutbox.OPERATION)),
+            objectId,
+            Long.parseLong(String.valueOf(entry.get(PlanOutbox.VERSION))),
+            Long.parseLong(String.valueOf(entry.get(PlanOutbox.TIMESTAMP))),
+            String.valueOf(entry.get(PlanOutbox.DATA)),
+            changes.isEmpty() ? null : changes));
+    }
+
+    private void createGroup() {
+        try {
+            redisTemplate.opsForStream().createGroup(outbox.stream(), ReadOffset.from("0"), GROUP);
+        } catch (Exception e) {
+            // BUSYGROUP: created earlier or by another instance
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")
+                && !(e.getCause() != null && String.valueOf(e.getCause().getMessage()).contains("BUSYGROUP"))) {
+                throw e;
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
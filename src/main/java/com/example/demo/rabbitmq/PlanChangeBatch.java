@@ -0,0 +1,114 @@
+package com.example.demo.rabbitmq;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.example.demo.elastic.PlanDelta;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Collapses the plan events of one consumer batch to the last effective
+ * operation per objectId, so that ten PATCHes of the same plan within a
+ * batch cost one index instead of ten.
+ */
+class PlanChangeBatch {
+
+    /**
+     * Effective change for one plan.
+     *
+     * @param data        latest plan document, null for a delete
+     * @param deleteFirst the plan was deleted earlier in the batch and then
+     *                    re-created, so its old documents must go first
+     * @param indexIds    child objectIds changed by the coalesced updates,
+     *                    null when the whole tree has to be indexed
+     * @param deletes     children removed by the coalesced updates, objectId
+     *                    to former parent objectId
+     */
+    record PlanChange(String objectId, JsonNode data, boolean deleteFirst,
+                      Set<String> indexIds, Map<String, String> deletes) {
+        boolean isDelete() {
+            return data == null;
+        }
+    }
+
+    private final Map<String, PlanChange> changes = new LinkedHashMap<>();
+
+    /**
+     * @param data  the plan document, null for a delete
+     * @param delta the "changes" object of an update message, or null
+     */
+    void add(String operation, String objectId, JsonNode data, JsonNode delta) {
+        PlanChange previous = changes.get(objectId);
+
+        switch (operation) {
+            case "create":
+            case "update":
+                boolean deleteFirst = previous != null
+                    && (previous.isDelete() || previous.deleteFirst());
+                changes.put(objectId, merge(previous, objectId, data, deleteFirst,
+                    "update".equals(operation) ? delta : null));
+                break;
+            case "delete":
+                changes.put(objectId, new PlanChange(objectId, null, false, null, Map.of()));
+                break;
+            default:
+                System.out.println("Unknown operation: " + operation);
+        }
+    }
+
+    // An update delta can only narrow the work if everything before it in
+    // the batch was a delta too; otherwise the whole tree is indexed.
+    private static PlanChange merge(PlanChange previous, String objectId, JsonNode data,
+                                    boolean deleteFirst, JsonNode delta) {
+        boolean partial = delta != null && !deleteFirst
+            && (previous == null || previous.indexIds() != null);
+        if (!partial) {
+            return new PlanChange(objectId, data, deleteFirst, null, Map.of());
+        }
+
+        Set<String> indexIds = new LinkedHashSet<>();
+        Map<String, String> deletes = new LinkedHashMap<>();
+        if (previous != null) {
+            indexIds.addAll(previous.indexIds());
+            deletes.putAll(previous.deletes());
+        }
+        for (JsonNode id : delta.path("index")) {
+            indexIds.add(id.asText());
+        }
+        for (JsonNode removed : delta.path("delete")) {
+            deletes.put(removed.get("id").asText(), removed.path("parent").asText(null));
+        }
+        return new PlanChange(objectId, data, false, indexIds, deletes);
+    }
+
+    Collection<PlanChange> changes() {
+        return changes.values();
+    }
+
+    /** Plans whose old documents have to be removed before (re)indexing. */
+    List<String> deletes() {
+        List<String> ids = new ArrayList<>();
+        for (PlanChange c : changes.values()) {
+            if (c.isDelete() || c.deleteFirst()) {
+                ids.add(c.objectId());
+            }
+        }
+        return ids;
+    }
+
+    /** What to index for every plan that still exists at the end of the batch. */
+    List<PlanDelta> upserts() {
+        List<PlanDelta> deltas = new ArrayList<>();
+        for (PlanChange c : changes.values()) {
+            if (!c.isDelete()) {
+                deltas.add(new PlanDelta(c.data(), c.indexIds(), c.deletes()));
+            }
+        }
+        return deltas;
+    }
+}
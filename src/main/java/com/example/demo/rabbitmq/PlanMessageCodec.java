@@ -0,0 +1,196 @@
+package com.example.demo.rabbitmq;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wire format of plan change messages.
+ *
+ * Operation, objectId, write version and timestamp travel as AMQP headers,
+ * so a consumer can route (and handle deletes) without touching the body.
+ * The body is {"data": plan, "changes": diff} encoded as Smile (binary JSON),
+ * gzipped above {@code plan.messages.compress-threshold} bytes; deletes
+ * have an empty body.
+ *
+ * {@code plan.messages.format=json} sends the former JSON envelope
+ * ({"operation", "timestamp", "data", "changes"}) instead, for as long as
+ * consumers of the previous release are running. Both formats are always
+ * accepted by {@link #decode}.
+ */
+@Component
+public class PlanMessageCodec {
+
+    public static final String OPERATION = "plan-operation";
+    public static final String OBJECT_ID = "plan-object-id";
+    public static final String VERSION = "plan-version";
+    public static final String TIMESTAMP = "plan-timestamp";
+
+    static final String SMILE = "application/x-jackson-smile";
+    static final String GZIP = "gzip";
+
+    /**
+     * A decoded change. 'data' is null for deletes, 'changes' is null unless
+     * the update carried a diff; 'version' is 0 when unknown (legacy format).
+     */
+    public record Event(String operation, String objectId, long version, long timestamp,
+                        JsonNode data, JsonNode changes) {}
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+    private final boolean binary;
+    private final int compressThreshold;
+
+    public PlanMessageCodec(@Value("${plan.messages.format:smile}") String format,
+                            @Value("${plan.messages.compress-threshold:4096}") int compressThreshold) {
+        if (!"smile".equals(format) && !"json".equals(format)) {
+            throw new IllegalArgumentException("plan.messages.format must be smile or json");
+        }
+        this.binary = "smile".equals(format);
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * @param planJson    the stored plan, embedded without building a tree
+     *                    (ignored for deletes)
+     * @param changesJson the update diff as JSON, or null
+     */
+    public Message encode(String operation, String objectId, long version, long timestamp,
+                          String planJson, String changesJson) {
+        MessageProperties properties = new MessageProperties();
+        properties.setHeader(OPERATION, operation);
+        properties.setHeader(OBJECT_ID, objectId);
+        properties.setHeader(VERSION, version);
+        properties.setHeader(TIMESTAMP, timestamp);
+        properties.setDeliveryMode(MessageProperties.DEFAULT_DELIVERY_MODE);
+
+        try {
+            byte[] body;
+            if (!binary) {
+                String data = "delete".equals(operation)
+                    ? "{\"objectId\":" + json.writeValueAsString(objectId) + "}" : planJson;
+                body = envelope(operation, timestamp, data, changesJson).getBytes(StandardCharsets.UTF_8);
+                properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            } else {
+                body = "delete".equals(operation) ? new byte[0] : smilePayload(planJson, changesJson);
+                properties.setContentType(SMILE);
+            }
+            // previous consumers cannot inflate, so JSON is never compressed
+            if (binary && body.length > compressThreshold) {
+                body = gzip(body);
+                properties.setContentEncoding(GZIP);
+            }
+            return new Message(body, properties);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode plan change", e);
+        }
+    }
+
+    /**
+     * The former JSON envelope; 'planJson' and 'changesJson' are embedded
+     * verbatim, not parsed again.
+     */
+    public String envelope(String operation, long timestamp, String planJson, String changesJson)
+            throws IOException {
+        Map<String, Object> wrapper = new LinkedHashMap<>();
+        wrapper.put("operation", operation);
+        wrapper.put("timestamp", timestamp);   // for the indexing-lag metric
+        wrapper.put("data", new RawValue(planJson));
+        if (changesJson != null) {
+            wrapper.put("changes", new RawValue(changesJson));
+        }
+        return json.writeValueAsString(wrapper);
+    }
+
+    /**
+     * A JSON envelope written to the outbox before this format existed.
+     */
+    public Message legacy(String envelope) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        return new Message(envelope.getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    public Event decode(Message message) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        String operation = properties.getHeader(OPERATION);
+        byte[] body = message.getBody();
+
+        if (operation != null && SMILE.equals(properties.getContentType())) {
+            String objectId = properties.getHeader(OBJECT_ID);
+            long version = number(properties.getHeader(VERSION));
+            long timestamp = number(properties.getHeader(TIMESTAMP));
+            if ("delete".equals(operation) || body.length == 0) {
+                return new Event(operation, objectId, version, timestamp, null, null);
+            }
+            JsonNode payload = smile.readTree(GZIP.equals(properties.getContentEncoding()) ? gunzip(body) : body);
+            return new Event(operation, objectId, version, timestamp, payload.get("data"), payload.get("changes"));
+        }
+
+        // JSON envelope, with or without headers
+        JsonNode root = json.readTree(GZIP.equals(properties.getContentEncoding()) ? gunzip(body) : body);
+        String op = root.get("operation").asText();
+        JsonNode data = root.get("data");
+        return new Event(op, data.get("objectId").asText(), number(properties.getHeader(VERSION)),
+            root.path("timestamp").asLong(0), "delete".equals(op) ? null : data, root.get("changes"));
+    }
+
+    // streams the stored JSON into Smile token by token, no intermediate tree
+    private byte[] smilePayload(String planJson, String changesJson) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(planJson.length() / 2 + 64);
+        try (JsonGenerator generator = smile.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeFieldName("data");
+            copy(planJson, generator);
+            if (changesJson != null) {
+                generator.writeFieldName("changes");
+                copy(changesJson, generator);
+            }
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private void copy(String source, JsonGenerator generator) throws IOException {
+        try (JsonParser parser = json.getFactory().createParser(source)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+
+    private static long number(Object header) {
+        return header instanceof Number n ? n.longValue() : 0;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+            zip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -1,44 +1,132 @@
 package com.example.demo.rabbitmq;
 
+import com.example.demo.elastic.BulkFailure;
 import com.example.demo.elastic.PlanIndexer;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import com.example.demo.metrics.PlanMetrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Batch listener shared by all partition containers (see
+ * RabbitMQConfig#partitionListeners); each container calls it from its own
+ * single consumer thread, so batches of one partition never overlap.
+ *
+ * If the indexing call fails (e.g. Elasticsearch unreachable) the exception
+ * is rethrown after {@code plan.listener.retry-backoff-ms}, so the container
+ * rejects the batch and RabbitMQ redelivers it in order; indexing is
+ * idempotent. Messages that cannot be decoded, and the messages of plans
+ * whose documents Elasticsearch rejected for good, go to the
+ * {@code plan.dead-letter} queue with the reason in a header.
+ */
 @Component
-public class PlanMessageListener {
+public class PlanMessageListener implements BatchMessageListener {
+
+    private record Decoded(String objectId, long timestamp, Message message) {}
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final PlanMessageCodec codec;
     private final PlanIndexer indexer;
+    private final PlanMessagePublisher publisher;
+    private final PlanMetrics metrics;
+    private final long retryBackoffMs;
+    private final long confirmTimeoutMs;
 
-    public PlanMessageListener(PlanIndexer indexer) {
+    public PlanMessageListener(PlanMessageCodec codec, PlanIndexer indexer, PlanMessagePublisher publisher,
+                               PlanMetrics metrics,
+                               @Value("${plan.listener.retry-backoff-ms:1000}") long retryBackoffMs,
+                               @Value("${plan.outbox.confirm-timeout-ms:5000}") long confirmTimeoutMs) {
+        this.codec = codec;
         this.indexer = indexer;
+        this.publisher = publisher;
+        this.metrics = metrics;
+        this.retryBackoffMs = retryBackoffMs;
+        this.confirmTimeoutMs = confirmTimeoutMs;
     }
 
-    @RabbitListener(queues = "plan.queue")
-    public void receiveMessage(String message) {
-        try {
-        	 System.out.println("🔔 Received message from RabbitMQ: " + message);
-        	 
-            JsonNode root = mapper.readTree(message);
-            String operation = root.get("operation").asText();
-            JsonNode data = root.get("data");
-
-            switch (operation) {
-                case "create":
-                case "update":
-                    indexer.indexOrUpdate(data);
-                    break;
-                case "delete":
-                    indexer.cascadeDelete(data.get("objectId").asText());
-                    break;
-                default:
-                    System.out.println("Unknown operation: " + operation);
+    @Override
+    public void onMessageBatch(List<Message> messages) {
+        PlanChangeBatch batch = new PlanChangeBatch();
+        List<Decoded> decoded = new ArrayList<>(messages.size());
+        List<Message> unreadable = new ArrayList<>();
+
+        Timer.Sample decode = metrics.start();
+        for (Message message : messages) {
+            try {
+                // deletes are answered from the headers, their body is not decoded
+                PlanMessageCodec.Event event = codec.decode(message);
+                batch.add(event.operation(), event.objectId(), event.data(), event.changes());
+                decoded.add(new Decoded(event.objectId(), event.timestamp(), message));
+            } catch (Exception e) {
+                unreadable.add(message);
+                System.out.println("Dead-lettering unreadable message: " + message);
+                e.printStackTrace();
             }
+        }
+        metrics.consumerDecoded(decode, messages.size(), unreadable.size());
+
+        System.out.println("🔔 Received " + messages.size() + " messages from RabbitMQ, "
+            + batch.changes().size() + " plans to index");
 
+        List<BulkFailure> failures;
+        try {
+            // removed plans and all their documents go in the same _bulk as the upserts
+            failures = indexer.index(batch.deletes(), batch.upserts());
         } catch (Exception e) {
-            e.printStackTrace();
+            metrics.consumerFailure("error", 1);
+            System.out.println("❌ Indexing failed, batch of " + messages.size()
+                + " messages goes back to the queue: " + e.getMessage());
+            pause();
+            throw new IllegalStateException("Indexing failed", e);
+        }
+
+        if (!unreadable.isEmpty()) {
+            publisher.deadLetter(unreadable, "unreadable", confirmTimeoutMs);
+        }
+        if (!failures.isEmpty()) {
+            metrics.consumerFailure("bulk", failures.size());
+            deadLetter(decoded, failures);
+        }
+        // acknowledged by Elasticsearch: end of the write's journey (not for rejected plans)
+        Set<String> failedPlans = new HashSet<>();
+        failures.forEach(f -> failedPlans.add(f.planId()));
+        for (Decoded d : decoded) {
+            if (!failedPlans.contains(d.objectId())) {
+                metrics.indexingLag(d.timestamp());
+            }
+        }
+    }
+
+    // every message of a plan with a rejected document, with the first rejection as reason
+    private void deadLetter(List<Decoded> decoded, List<BulkFailure> failures) {
+        Map<String, String> reasons = new HashMap<>();
+        for (BulkFailure failure : failures) {
+            reasons.putIfAbsent(failure.planId(), failure.toString());
+        }
+        for (Map.Entry<String, String> plan : reasons.entrySet()) {
+            List<Message> failed = decoded.stream()
+                .filter(d -> d.objectId().equals(plan.getKey()))
+                .map(Decoded::message)
+                .toList();
+            if (!failed.isEmpty()) {
+                publisher.deadLetter(failed, plan.getValue(), confirmTimeoutMs);
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(retryBackoffMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
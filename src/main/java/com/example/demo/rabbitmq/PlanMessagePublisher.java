@@ -1,31 +1,60 @@
 package com.example.demo.rabbitmq;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
+import java.util.List;
 
 @Service
 public class PlanMessagePublisher {
 
+    public static final String FAILURE = "plan-failure";
+
     private final RabbitTemplate rabbitTemplate;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final PlanPartitions partitions;
 
-    public PlanMessagePublisher(RabbitTemplate rabbitTemplate) {
+    public PlanMessagePublisher(RabbitTemplate rabbitTemplate, PlanPartitions partitions) {
         this.rabbitTemplate = rabbitTemplate;
+        this.partitions = partitions;
+    }
+
+    /**
+     * An encoded plan change (see PlanMessageCodec) waiting to be published.
+     */
+    public record Outbound(String objectId, Message message) {}
+
+    /**
+     * Publishes the messages in order on one channel and waits until the
+     * broker confirmed all of them. Throws if any was nacked or the confirms
+     * did not arrive within 'timeoutMs'; the caller then resends the batch.
+     * Needs spring.rabbitmq.publisher-confirm-type=simple.
+     */
+    public void sendConfirmed(List<Outbound> messages, long timeoutMs) {
+        rabbitTemplate.invoke(ops -> {
+            for (Outbound message : messages) {
+                // same objectId -> same partition queue -> ordered delivery
+                ops.send(PlanPartitions.EXCHANGE, partitions.routingKeyFor(message.objectId()),
+                    message.message());
+            }
+            ops.waitForConfirmsOrDie(timeoutMs);
+            return null;
+        });
     }
 
-    public void send(String operation, String planJson) {
-        try {
-            Map<String, Object> wrapper = Map.of(
-                "operation", operation,
-                "data", mapper.readTree(planJson)
-            );
-
-            rabbitTemplate.convertAndSend("plan.exchange", "plan.routingkey", mapper.writeValueAsString(wrapper));
-        } catch (Exception e) {
-            throw new RuntimeException("RabbitMQ publish failed", e);
-        }
+    /**
+     * Moves messages the consumer gave up on to the dead-letter queue,
+     * unchanged except for a {@code plan-failure} header, and waits for the
+     * broker's confirm.
+     */
+    public void deadLetter(List<Message> messages, String reason, long timeoutMs) {
+        rabbitTemplate.invoke(ops -> {
+            for (Message message : messages) {
+                message.getMessageProperties().setHeader(FAILURE, reason);
+                ops.send("", PlanPartitions.DEAD_LETTER_QUEUE, message);
+            }
+            ops.waitForConfirmsOrDie(timeoutMs);
+            return null;
+        });
     }
 }
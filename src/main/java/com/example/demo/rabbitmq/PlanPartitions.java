@@ -0,0 +1,82 @@
+package com.example.demo.rabbitmq;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps a plan objectId to one of {@code plan.partitions} queues, and the
+ * queues to the instances consuming them.
+ *
+ * All events of one plan land in the same queue and every queue has exactly
+ * one active consumer, so per-plan ordering survives parallel indexing.
+ * String.hashCode is specified by the JLS, so every instance agrees on the
+ * mapping.
+ *
+ * Instance {@code plan.listener.instance-index} of
+ * {@code plan.listener.instance-count} consumes the partitions p with
+ * p % instance-count == instance-index, so the partitions are spread
+ * evenly over the instances.
+ */
+@Component
+public class PlanPartitions {
+
+    static final String EXCHANGE = "plan.exchange";
+
+    /** Messages that could not be decoded or indexed, see PlanMessageListener. */
+    static final String DEAD_LETTER_QUEUE = "plan.dead-letter";
+
+    private final int count;
+    private final int instanceIndex;
+    private final int instanceCount;
+
+    public PlanPartitions(@Value("${plan.partitions:4}") int count,
+                          @Value("${plan.listener.instance-index:0}") int instanceIndex,
+                          @Value("${plan.listener.instance-count:1}") int instanceCount) {
+        if (count < 1) {
+            throw new IllegalArgumentException("plan.partitions must be >= 1");
+        }
+        if (instanceCount < 1 || instanceIndex < 0 || instanceIndex >= instanceCount) {
+            throw new IllegalArgumentException(
+                "plan.listener.instance-index must be between 0 and plan.listener.instance-count - 1");
+        }
+        if (instanceCount > count) {
+            System.out.println("⚠️ plan.listener.instance-count " + instanceCount + " exceeds plan.partitions "
+                + count + ": some instances consume nothing");
+        }
+        this.count = count;
+        this.instanceIndex = instanceIndex;
+        this.instanceCount = instanceCount;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** The partitions this instance consumes. */
+    public List<Integer> owned() {
+        List<Integer> owned = new ArrayList<>();
+        for (int p = instanceIndex; p < count; p += instanceCount) {
+            owned.add(p);
+        }
+        return owned;
+    }
+
+    public int partitionFor(String objectId) {
+        return Math.floorMod(objectId.hashCode(), count);
+    }
+
+    public String queueName(int partition) {
+        return "plan.queue." + partition;
+    }
+
+    public String routingKey(int partition) {
+        return "plan.partition." + partition;
+    }
+
+    public String routingKeyFor(String objectId) {
+        return routingKey(partitionFor(objectId));
+    }
+}
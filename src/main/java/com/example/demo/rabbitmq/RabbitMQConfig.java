@@ -1,6 +1,14 @@
 package com.example.demo.rabbitmq;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,18 +18,67 @@ public class RabbitMQConfig {
     // Exchange
     @Bean
     public TopicExchange exchange() {
-        return new TopicExchange("plan.exchange");
+        return new TopicExchange(PlanPartitions.EXCHANGE);
+    }
+
+    // One durable queue + binding per partition, declared by every instance.
+    // Single-active-consumer keeps one consumer per queue even if two
+    // instances are configured with the same instance-index.
+    @Bean
+    public Declarables partitionQueues(PlanPartitions partitions, TopicExchange exchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int p = 0; p < partitions.count(); p++) {
+            Queue queue = QueueBuilder.durable(partitions.queueName(p))
+                .singleActiveConsumer()
+                .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(partitions.routingKey(p)));
+        }
+        // failed messages, published through the default exchange
+        declarables.add(QueueBuilder.durable(PlanPartitions.DEAD_LETTER_QUEUE).build());
+        return new Declarables(declarables);
     }
 
-    // Queue
+    // Batch consumer: hands the listener up to batch-size messages, or
+    // whatever arrived within max-wait-ms, as one List<Message>
     @Bean
-    public Queue queue() {
-        return new Queue("plan.queue", true); // durable queue
+    public SimpleRabbitListenerContainerFactory planBatchContainerFactory(
+        ConnectionFactory connectionFactory,
+        @Value("${plan.listener.batch-size:100}") int batchSize,
+        @Value("${plan.listener.max-wait-ms:200}") long maxWaitMs,
+        @Value("${plan.listener.auto-startup:true}") boolean autoStartup
+    ) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setBatchReceiveTimeout(maxWaitMs);
+        factory.setPrefetchCount(Math.max(batchSize, 250));
+        factory.setConcurrentConsumers(1);    // one ordered consumer per partition
+        factory.setMaxConcurrentConsumers(1);
+        factory.setAutoStartup(autoStartup);  // false for offline commands (e.g. --export)
+        return factory;
     }
 
-    // Binding
+    // One listener container per partition queue owned by this instance, all
+    // sharing the same listener
     @Bean
-    public Binding binding(Queue queue, TopicExchange exchange) {
-        return BindingBuilder.bind(queue).to(exchange).with("plan.routingkey");
+    public RabbitListenerConfigurer partitionListeners(
+        PlanPartitions partitions,
+        PlanMessageListener listener,
+        SimpleRabbitListenerContainerFactory planBatchContainerFactory
+    ) {
+        return registrar -> {
+            System.out.println("📬 Consuming plan partitions " + partitions.owned());
+            for (int p : partitions.owned()) {
+                SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+                endpoint.setId("plan-partition-" + p);
+                endpoint.setQueueNames(partitions.queueName(p));
+                endpoint.setBatchListener(true);
+                endpoint.setMessageListener(listener);
+                registrar.registerEndpoint(endpoint, planBatchContainerFactory);
+            }
+        };
     }
 }
@@ -1,17 +1,46 @@
 package com.example.demo.security;
 
 import com.auth0.jwk.Jwk;
-import com.auth0.jwk.JwkProvider;
 import com.auth0.jwk.UrlJwkProvider;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
 
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Verifies Google-issued ID tokens.
+ *
+ * The verifier is a long-lived bean: signing keys are loaded once and refreshed
+ * in the background, an unknown {@code kid} triggers at most one reload per
+ * {@code auth.jwks.min-refresh-seconds}, and tokens that already passed
+ * verification are remembered (by SHA-256 of the token) until their {@code exp}.
+ *
+ * {@code auth.jwks.location} may point at the Google endpoint, any other URL,
+ * or a local JWKS file, so the verifier also works offline.
+ */
+@Component
 public class GoogleTokenVerifier {
 
     private static final String GOOGLE_JWKS_URL = "https://www.googleapis.com/oauth2/v3/certs";
@@ -19,7 +48,67 @@ public class GoogleTokenVerifier {
     // Replace with your actual client ID from Google Cloud
     private static final String CLIENT_ID = "954183420749-55u8nr8817bcae6ogpogq5etek3q031b.apps.googleusercontent.com";
 
-    public static void verifyToken(String authorizationHeader) throws Exception {
+    /**
+     * Source of the current signing keys, indexed by key ID.
+     */
+    @FunctionalInterface
+    public interface KeySource {
+        Map<String, RSAPublicKey> load() throws Exception;
+    }
+
+    private final KeySource keySource;
+    private final long minRefreshNanos;
+    private final Map<String, Long> verifiedTokens;      // sha256(token) -> exp (epoch millis)
+    private final ScheduledExecutorService refresher;
+    private final Object refreshLock = new Object();
+
+    private volatile Map<String, JWTVerifier> verifiers = Map.of();
+    private volatile long lastRefresh;                   // System.nanoTime() of last successful load, 0 = never
+
+    @Autowired
+    public GoogleTokenVerifier(
+        @Value("${auth.jwks.location:" + GOOGLE_JWKS_URL + "}") String jwksLocation,
+        @Value("${auth.jwks.refresh-seconds:900}") long refreshSeconds,
+        @Value("${auth.jwks.min-refresh-seconds:30}") long minRefreshSeconds,
+        @Value("${auth.token-cache.max-size:10000}") int maxCachedTokens
+    ) throws MalformedURLException {
+        this(urlKeySource(jwksLocation), refreshSeconds, minRefreshSeconds, maxCachedTokens);
+    }
+
+    public GoogleTokenVerifier(KeySource keySource, long refreshSeconds,
+                               long minRefreshSeconds, int maxCachedTokens) {
+        this.keySource = keySource;
+        this.minRefreshNanos = TimeUnit.SECONDS.toNanos(minRefreshSeconds);
+        this.verifiedTokens = Collections.synchronizedMap(
+            new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxCachedTokens;
+                }
+            });
+
+        if (refreshSeconds > 0) {
+            this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "jwks-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            this.refresher.scheduleWithFixedDelay(this::backgroundRefresh,
+                refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        } else {
+            this.refresher = null;
+        }
+    }
+
+    /**
+     * In-memory key set, e.g. for tests or air-gapped deployments.
+     */
+    public static GoogleTokenVerifier withKeys(Map<String, RSAPublicKey> keys) {
+        Map<String, RSAPublicKey> copy = Map.copyOf(keys);
+        return new GoogleTokenVerifier(() -> copy, 0, 0, 10_000);
+    }
+
+    public void verifyToken(String authorizationHeader) throws Exception {
         // 1. Check that we have a "Bearer " header
         if (authorizationHeader == null || !authorizationHeader.startsWith("Bearer ")) {
             throw new JWTVerificationException("Missing or invalid Authorization header");
@@ -27,8 +116,15 @@ public class GoogleTokenVerifier {
         // 2. Extract the JWT token
         String token = authorizationHeader.substring("Bearer ".length());
 
-        // 3. Download Google's public keys
-        JwkProvider provider = new UrlJwkProvider(new URL(GOOGLE_JWKS_URL));
+        // 3. Already verified and not yet expired?
+        String tokenKey = sha256(token);
+        Long expiresAt = verifiedTokens.get(tokenKey);
+        if (expiresAt != null) {
+            if (System.currentTimeMillis() < expiresAt) {
+                return;
+            }
+            verifiedTokens.remove(tokenKey);
+        }
 
         // 4. Decode the token to see which key ID we need
         DecodedJWT decoded = JWT.decode(token);
@@ -37,18 +133,91 @@ public class GoogleTokenVerifier {
             throw new JWTVerificationException("Token missing key ID (kid)");
         }
 
-        // 5. Fetch the matching key from Google
-        Jwk jwk = provider.get(keyId);
-        // 6. Build an RSA256 Algorithm from the public key
-        Algorithm algorithm = Algorithm.RSA256((RSAPublicKey) jwk.getPublicKey(), null);
+        // 5. Verify signature, issuer, audience and expiry with the cached key
+        DecodedJWT verified = verifierFor(keyId).verify(decoded); // throws if invalid
 
-        // 7. Create verifier with expected issuer + audience
-        JWTVerifier verifier = JWT.require(algorithm)
-            .withIssuer(EXPECTED_ISSUER)
-            .withAudience(CLIENT_ID)
-            .build();
+        // 6. Remember it until it expires
+        if (verified.getExpiresAt() != null) {
+            verifiedTokens.put(tokenKey, verified.getExpiresAt().getTime());
+        }
+    }
 
-        // 8. Verify
-        verifier.verify(token); // throws if invalid
+    private JWTVerifier verifierFor(String keyId) throws Exception {
+        if (lastRefresh == 0) {
+            refreshKeys(false);
+        }
+        JWTVerifier verifier = verifiers.get(keyId);
+        if (verifier == null) {
+            // Google rotates keys; reload, but no more than once per min-refresh interval
+            refreshKeys(false);
+            verifier = verifiers.get(keyId);
+        }
+        if (verifier == null) {
+            throw new JWTVerificationException("No signing key found for kid " + keyId);
+        }
+        return verifier;
+    }
+
+    private void refreshKeys(boolean force) throws Exception {
+        synchronized (refreshLock) {
+            long now = System.nanoTime();
+            if (!force && lastRefresh != 0 && now - lastRefresh < minRefreshNanos) {
+                return;
+            }
+            Map<String, JWTVerifier> loaded = new HashMap<>();
+            for (Map.Entry<String, RSAPublicKey> e : keySource.load().entrySet()) {
+                Algorithm algorithm = Algorithm.RSA256(e.getValue(), null);
+                loaded.put(e.getKey(), JWT.require(algorithm)
+                    .withIssuer(EXPECTED_ISSUER)
+                    .withAudience(CLIENT_ID)
+                    .build());
+            }
+            verifiers = Map.copyOf(loaded);
+            // only after a successful load, so a failed one is retried at once
+            lastRefresh = now;
+        }
+    }
+
+    private void backgroundRefresh() {
+        try {
+            refreshKeys(true);
+        } catch (Exception e) {
+            // keep serving with the keys we already have
+            System.out.println("JWKS refresh failed: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    private static KeySource urlKeySource(String location) throws MalformedURLException {
+        URL url = location.contains("://") || location.startsWith("file:")
+            ? new URL(location)
+            : Path.of(location).toUri().toURL();
+        UrlJwkProvider provider = new UrlJwkProvider(url);
+
+        return () -> {
+            Map<String, RSAPublicKey> keys = new HashMap<>();
+            for (Jwk jwk : provider.getAll()) {
+                PublicKey key = jwk.getPublicKey();
+                if (jwk.getId() != null && key instanceof RSAPublicKey rsa) {
+                    keys.put(jwk.getId(), rsa);
+                }
+            }
+            return keys;
+        };
+    }
+
+    private static String sha256(String token) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
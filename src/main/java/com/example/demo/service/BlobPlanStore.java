@@ -0,0 +1,46 @@
+package com.example.demo.service;
+
+import org.springframework.data.redis.core.RedisOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.example.demo.model.PlanDocument;
+
+/**
+ * The whole plan as one string value under its key.
+ */
+class BlobPlanStore implements PlanStore {
+
+    @Override
+    public PlanDocument stored(PlanDocument plan) {
+        return plan;
+    }
+
+    @Override
+    public void write(RedisOperations<String, String> ops, String key, PlanDocument plan, PlanDocument previous) {
+        ops.opsForValue().set(key, plan.json());
+    }
+
+    @Override
+    public String read(RedisOperations<String, String> redis, String key) {
+        return redis.opsForValue().get(key);
+    }
+
+    @Override
+    public List<String> readAll(RedisOperations<String, String> redis, List<String> keys) {
+        return redis.opsForValue().multiGet(keys);
+    }
+
+    /**
+     * The plan JSON of a raw value read from the plan key.
+     */
+    String decode(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void delete(RedisOperations<String, String> ops, String key, PlanDocument current) {
+        ops.delete(key);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * ETag helpers shared by the service (which computes them once per write)
+ * and the controller (which only compares them).
+ */
+public final class ETags {
+
+    private ETags() {}
+
+    /** MD5 hex of the document, the ETag format clients already hold. */
+    public static String of(String content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // fallback
+            return String.valueOf(content.hashCode());
+        }
+    }
+
+    /**
+     * ETag of the gzip-encoded representation of a plan whose JSON has
+     * 'eTag': the bytes differ, so caches must not treat them as the same.
+     */
+    public static String gzip(String eTag) {
+        return eTag + "-gz";
+    }
+
+    /**
+     * True if the header matches the ETag of either representation, e.g. for
+     * If-Match, where both name the same stored version.
+     */
+    public static boolean matchesEither(String header, String eTag) {
+        return matches(header, eTag) || matches(header, gzip(eTag));
+    }
+
+    /**
+     * True if an If-Match / If-None-Match header value matches the ETag.
+     * Accepts quoted or bare tags, weak tags, lists and "*".
+     */
+    public static boolean matches(String header, String eTag) {
+        if (header == null || eTag == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                tag = tag.substring(1, tag.length() - 1);
+            }
+            if (tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+
+import com.example.demo.model.PlanDocument;
+import com.example.demo.model.PlanGraph;
+
+/**
+ * The plan split into one string value per identified object (the root
+ * under the plan key, children under {@code node:<plan key>/<objectType>:<objectId>},
+ * see PlanGraph), plus a {@code rel:<nodeKey>} hash per parent mapping each
+ * property to its child key(s).
+ *
+ * Writes compare against the previous version and only touch nodes and
+ * relations that changed. Reads walk the graph one level per pipelined
+ * round-trip. Every plan owns its child nodes, so an object embedded in
+ * several plans is stored once per plan and writing or deleting one plan
+ * never touches another. Plans written with the former global child keys
+ * stay readable (relations hold the keys verbatim) and move to their own
+ * nodes on their next write; the global nodes are left in place, as other
+ * plans may still reference them.
+ */
+class GraphPlanStore implements PlanStore {
+
+    // a read racing a write may miss a node the write just replaced
+    private static final int READ_ATTEMPTS = 3;
+
+    static String relationKey(String nodeKey) {
+        return "rel:" + nodeKey;
+    }
+
+    @Override
+    public PlanDocument stored(PlanDocument plan) {
+        // the root key does not influence the assembled document
+        return PlanDocument.of(PlanGraph.of(plan.tree(), "root").assemble());
+    }
+
+    @Override
+    public void write(RedisOperations<String, String> ops, String key, PlanDocument plan, PlanDocument previous) {
+        Map<String, PlanGraph.Node> next = PlanGraph.of(plan.tree(), key).nodes();
+        Map<String, PlanGraph.Node> prev = previous == null
+            ? Map.of()
+            : PlanGraph.of(previous.tree(), key).nodes();
+
+        for (PlanGraph.Node node : next.values()) {
+            PlanGraph.Node old = prev.get(node.key());
+
+            if (old == null || !old.body().equals(node.body())) {
+                ops.opsForValue().set(node.key(), node.body());
+            }
+
+            Map<String, String> oldRelations = old == null ? Map.of() : old.relations();
+            if (!oldRelations.equals(node.relations())) {
+                String relKey = relationKey(node.key());
+                List<Object> removed = new ArrayList<>();
+                for (String prop : oldRelations.keySet()) {
+                    if (!node.relations().containsKey(prop)) {
+                        removed.add(prop);
+                    }
+                }
+                if (!removed.isEmpty()) {
+                    ops.opsForHash().delete(relKey, removed.toArray());
+                }
+                Map<String, String> changed = new HashMap<>();
+                node.relations().forEach((prop, target) -> {
+                    if (!Objects.equals(oldRelations.get(prop), target)) {
+                        changed.put(prop, target);
+                    }
+                });
+                if (!changed.isEmpty()) {
+                    ops.opsForHash().putAll(relKey, changed);
+                }
+            }
+        }
+
+        // children dropped by this version
+        for (String oldKey : prev.keySet()) {
+            if (!next.containsKey(oldKey)) {
+                ops.delete(List.of(oldKey, relationKey(oldKey)));
+            }
+        }
+    }
+
+    @Override
+    public String read(RedisOperations<String, String> redis, String key) {
+        return readAll(redis, List.of(key)).get(0);
+    }
+
+    /**
+     * Reads many plans level by level: one pipelined round-trip per tree
+     * depth for all of them together. A plan with a missing node fails the
+     * read (after retrying) instead of being served incomplete.
+     */
+    @Override
+    public List<String> readAll(RedisOperations<String, String> redis, List<String> rootKeys) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return readOnce(redis, rootKeys);
+            } catch (IllegalStateException e) {
+                if (attempt == READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private List<String> readOnce(RedisOperations<String, String> redis, List<String> rootKeys) {
+        Map<String, String> bodies = new HashMap<>();
+        Map<String, Map<String, String>> relations = new HashMap<>();
+
+        List<String> level = List.copyOf(new LinkedHashSet<>(rootKeys));
+        while (!level.isEmpty()) {
+            List<String> keys = level;
+            List<Object> results = redis.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    for (String k : keys) {
+                        ops.opsForValue().get(k);
+                        ops.opsForHash().entries(relationKey(k));
+                    }
+                    return null;
+                }
+            });
+
+            Set<String> nextLevel = new LinkedHashSet<>();
+            for (int i = 0; i < keys.size(); i++) {
+                String body = (String) results.get(2 * i);
+                if (body == null) {
+                    continue;
+                }
+                bodies.put(keys.get(i), body);
+
+                @SuppressWarnings("unchecked")
+                Map<Object, Object> rel = (Map<Object, Object>) results.get(2 * i + 1);
+                if (rel == null || rel.isEmpty()) {
+                    continue;
+                }
+                Map<String, String> refs = new HashMap<>();
+                rel.forEach((prop, target) -> refs.put(prop.toString(), target.toString()));
+                relations.put(keys.get(i), refs);
+                for (String child : childKeys(refs)) {
+                    // legacy global nodes shared between plans are fetched once
+                    if (!bodies.containsKey(child)) {
+                        nextLevel.add(child);
+                    }
+                }
+            }
+            level = List.copyOf(nextLevel);
+        }
+
+        List<String> plans = new ArrayList<>(rootKeys.size());
+        for (String key : rootKeys) {
+            JSONObject plan = PlanGraph.assemble(key, bodies, relations);
+            plans.add(plan == null ? null : PlanDocument.of(plan).json());
+        }
+        return plans;
+    }
+
+    @Override
+    public void delete(RedisOperations<String, String> ops, String key, PlanDocument current) {
+        List<String> keys = new ArrayList<>();
+        if (current == null) {
+            keys.add(key);
+            keys.add(relationKey(key));
+        } else {
+            for (String nodeKey : PlanGraph.of(current.tree(), key).nodes().keySet()) {
+                keys.add(nodeKey);
+                keys.add(relationKey(nodeKey));
+            }
+        }
+        ops.delete(keys);
+    }
+
+    private static List<String> childKeys(Map<String, String> refs) {
+        List<String> keys = new ArrayList<>();
+        for (String target : refs.values()) {
+            if (target.startsWith("[")) {
+                JSONArray arr = new JSONArray(target);
+                for (int i = 0; i < arr.length(); i++) {
+                    keys.add(arr.getString(i));
+                }
+            } else {
+                keys.add(target);
+            }
+        }
+        return keys;
+    }
+}
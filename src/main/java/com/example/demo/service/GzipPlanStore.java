@@ -0,0 +1,84 @@
+package com.example.demo.service;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.example.demo.model.PlanDocument;
+
+/**
+ * Like the blob layout, but the value is the gzip-compressed JSON, written
+ * and read as raw bytes. GET can hand those bytes to clients that accept
+ * gzip unchanged (see PlanService#getRaw); everyone else gets them inflated.
+ *
+ * Values are recognized by the gzip magic bytes, so plans stored by the
+ * blob layout keep working and are compressed on their next write.
+ */
+class GzipPlanStore extends BlobPlanStore {
+
+    @Override
+    public void write(RedisOperations<String, String> ops, String key, PlanDocument plan, PlanDocument previous) {
+        byte[] value = compress(plan.json());
+        ops.execute((RedisCallback<Object>) connection ->
+            connection.stringCommands().set(bytes(key), value));
+    }
+
+    @Override
+    public String read(RedisOperations<String, String> redis, String key) {
+        return decode(redis.execute((RedisCallback<byte[]>) connection ->
+            connection.stringCommands().get(bytes(key))));
+    }
+
+    @Override
+    public List<String> readAll(RedisOperations<String, String> redis, List<String> keys) {
+        List<byte[]> values = redis.execute((RedisCallback<List<byte[]>>) connection ->
+            connection.stringCommands().mGet(keys.stream().map(GzipPlanStore::bytes).toArray(byte[][]::new)));
+        List<String> plans = new ArrayList<>(keys.size());
+        for (byte[] value : values) {
+            plans.add(decode(value));
+        }
+        return plans;
+    }
+
+    @Override
+    String decode(byte[] value) {
+        return isGzip(value) ? inflate(value) : super.decode(value);
+    }
+
+    static boolean isGzip(byte[] value) {
+        return value != null && value.length >= 2 && value[0] == (byte) 0x1f && value[1] == (byte) 0x8b;
+    }
+
+    static byte[] compress(String json) {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 4 + 64);
+        try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+            zip.write(utf8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String inflate(byte[] value) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(value))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt compressed plan", e);
+        }
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
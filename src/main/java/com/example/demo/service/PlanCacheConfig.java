@@ -0,0 +1,29 @@
+package com.example.demo.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Subscribes every instance to the near-cache invalidation channel.
+ */
+@Configuration
+@ConditionalOnProperty(name = "plan.cache.enabled", havingValue = "true")
+public class PlanCacheConfig {
+
+    @Bean
+    public RedisMessageListenerContainer planCacheInvalidations(RedisConnectionFactory connectionFactory,
+                                                                PlanNearCache cache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+            (message, pattern) -> cache.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new ChannelTopic(cache.channel()));
+        return container;
+    }
+}
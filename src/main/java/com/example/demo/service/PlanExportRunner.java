@@ -0,0 +1,48 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Offline export: started with {@code --export=<file>} the application
+ * writes every plan to the file (gzip when it ends in .gz) and exits.
+ * See the README for the flags that keep the instance from serving or
+ * consuming while it runs.
+ */
+@Component
+public class PlanExportRunner implements ApplicationRunner {
+
+    private final PlanExporter exporter;
+    private final ApplicationContext context;
+    private final int pageSize;
+
+    public PlanExportRunner(PlanExporter exporter, ApplicationContext context,
+                            @Value("${plan.export.page-size:1000}") int pageSize) {
+        this.exporter = exporter;
+        this.context = context;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!args.containsOption("export")) {
+            return;
+        }
+        Path target = Path.of(args.getOptionValues("export").get(0));
+        long count;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            count = exporter.export(out, pageSize, target.toString().endsWith(".gz"));
+        }
+        System.out.println("📤 Exported " + count + " plans to " + target.toAbsolutePath());
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+}
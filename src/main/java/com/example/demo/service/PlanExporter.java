@@ -0,0 +1,72 @@
+package com.example.demo.service;
+
+import org.json.JSONObject;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes every stored plan as NDJSON (one plan per line, so the output can
+ * be fed back to /v1/plan/_bulk).
+ *
+ * The keyspace is walked with SCAN and each step's plans are fetched in one
+ * batch (MGET for the blob layout), written and flushed before the next
+ * step; only one page is ever held in memory.
+ */
+@Service
+public class PlanExporter {
+
+    private final PlanService planService;
+
+    public PlanExporter(PlanService planService) {
+        this.planService = planService;
+    }
+
+    /**
+     * @param pageSize SCAN COUNT hint, i.e. roughly the plans per batch
+     * @param gzip     compress the output
+     * @return number of plans written
+     */
+    public long export(OutputStream out, int pageSize, boolean gzip) throws IOException {
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(out, 64 * 1024) : null;
+        Writer writer = new OutputStreamWriter(gzip ? compressed : out, StandardCharsets.UTF_8);
+        long[] written = {0};
+        try {
+            planService.forEachKeyPage(pageSize, ids -> {
+                List<String> plans = planService.getAll(ids);
+                try {
+                    for (String json : plans) {
+                        if (json == null) {
+                            continue;         // deleted since SCAN returned it
+                        }
+                        writer.write(singleLine(json));
+                        writer.write('\n');
+                        written[0]++;
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        if (compressed != null) {
+            compressed.finish();
+        }
+        return written[0];
+    }
+
+    // POST bodies are stored verbatim and may be pretty-printed
+    private static String singleLine(String json) {
+        return json.indexOf('\n') < 0 && json.indexOf('\r') < 0 ? json : new JSONObject(json).toString();
+    }
+}
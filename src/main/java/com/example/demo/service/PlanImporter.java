@@ -0,0 +1,199 @@
+package com.example.demo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.model.PlanDocument;
+import com.example.demo.validation.PlanSchemaValidator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bulk creation of plans from an NDJSON stream (one plan per line).
+ *
+ * Lines are read in batches of {@code plan.import.batch-size}; each batch is
+ * parsed and validated in parallel, written as one MULTI guarded by a WATCH
+ * on the plan keys (documents, ETags and outbox entries, published by
+ * OutboxRelay; ids that already exist are skipped with 409) and answered
+ * line by line before the next batch is read. Memory is bounded by one
+ * batch whatever the upload size, and a slow client only slows down its
+ * own reads.
+ */
+@Service
+public class PlanImporter {
+
+    /**
+     * Totals of one import.
+     */
+    public record Summary(long lines, long created, long failed) {}
+
+    // status 0 = valid, not stored yet; 'message' is the ETag on 201, the error otherwise
+    private record Line(long number, PlanDocument plan, int status, String message) {
+
+        Line with(int status, String message) {
+            return new Line(number, plan, status, message);
+        }
+    }
+
+    private final PlanService planService;
+    private final PlanSchemaValidator jsonSchema;
+    private final int batchSize;
+    private final ExecutorService validators;
+
+    public PlanImporter(PlanService planService, PlanSchemaValidator jsonSchema,
+                        @Value("${plan.import.batch-size:500}") int batchSize,
+                        @Value("${plan.import.parallelism:0}") int parallelism) {
+        this.planService = planService;
+        this.jsonSchema = jsonSchema;
+        this.batchSize = batchSize;
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.validators = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "plan-import");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        validators.shutdownNow();
+    }
+
+    /**
+     * Imports every line of 'in' and writes one NDJSON result per non-blank
+     * line to 'out' ({"line", "objectId", "status", "etag" | "error"}),
+     * followed by a {"summary": ...} line.
+     */
+    public Summary importNdjson(InputStream in, Writer out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        long lineNumber = 0;
+        long lines = 0;
+        long created = 0;
+        long failed = 0;
+
+        List<CompletableFuture<Line>> batch = new ArrayList<>(batchSize);
+        String text;
+        do {
+            text = reader.readLine();
+            if (text != null) {
+                lineNumber++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                long number = lineNumber;
+                String json = text;
+                batch.add(CompletableFuture.supplyAsync(() -> parse(number, json), validators));
+            }
+            if (batch.size() >= batchSize || (text == null && !batch.isEmpty())) {
+                List<Line> results = store(batch.stream().map(CompletableFuture::join).toList());
+                for (Line line : results) {
+                    lines++;
+                    if (line.status() == 201) {
+                        created++;
+                    } else {
+                        failed++;
+                    }
+                    writeResult(out, line);
+                }
+                out.flush();
+                batch.clear();
+            }
+        } while (text != null);
+
+        out.write("{\"summary\":{\"lines\":" + lines + ",\"created\":" + created
+            + ",\"failed\":" + failed + "}}\n");
+        out.flush();
+        System.out.println("📥 Imported " + created + " plans, " + failed + " lines rejected");
+        return new Summary(lines, created, failed);
+    }
+
+    private Line parse(long number, String json) {
+        Line line = new Line(number, null, 0, null);
+        PlanDocument plan;
+        try {
+            plan = PlanDocument.parse(json);
+        } catch (Exception e) {
+            return line.with(400, "Invalid JSON: " + e.getMessage());
+        }
+        line = new Line(number, plan, 0, null);
+        try {
+            jsonSchema.validate(plan.tree());
+        } catch (Exception e) {
+            return line.with(400, "Invalid request body: " + e.getMessage());
+        }
+        if (plan.objectId() == null) {
+            return line.with(400, "Missing or empty 'objectId'.");
+        }
+        return line;
+    }
+
+    /**
+     * Conflict checks and the batch write; returns the lines with their final
+     * status, 503 for the batch's plans if the write failed.
+     */
+    private List<Line> store(List<Line> parsed) {
+        List<Line> results = new ArrayList<>(parsed);
+        List<Integer> candidates = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < parsed.size(); i++) {
+            Line line = parsed.get(i);
+            if (line.status() != 0) {
+                continue;
+            }
+            if (!seen.add(line.plan().objectId())) {
+                results.set(i, line.with(409, "Duplicate objectId in this upload."));
+                continue;
+            }
+            candidates.add(i);
+        }
+        if (candidates.isEmpty()) {
+            return results;
+        }
+
+        // existence is checked inside the write, so a concurrent create of the same id loses with 409
+        List<String> eTags;
+        try {
+            eTags = planService.createAll(candidates.stream().map(i -> parsed.get(i).plan()).toList());
+        } catch (RuntimeException e) {
+            // e.g. Redis unavailable; the MULTI ran whole or not at all, so these lines
+            // can be resent (if it did run, they answer 409 then)
+            System.out.println("❌ Batch create of " + candidates.size() + " plans failed: " + e.getMessage());
+            for (int i : candidates) {
+                results.set(i, parsed.get(i).with(503, "Could not store the plan: " + e.getMessage()));
+            }
+            return results;
+        }
+        for (int c = 0; c < candidates.size(); c++) {
+            int i = candidates.get(c);
+            Line line = parsed.get(i);
+            results.set(i, eTags.get(c) != null
+                ? line.with(201, eTags.get(c))
+                : line.with(409, "Plan with objectId '" + line.plan().objectId() + "' already exists."));
+        }
+        return results;
+    }
+
+    private static void writeResult(Writer out, Line line) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"line\":").append(line.number());
+        if (line.plan() != null && line.plan().objectId() != null) {
+            sb.append(",\"objectId\":").append(JSONObject.quote(line.plan().objectId()));
+        }
+        sb.append(",\"status\":").append(line.status());
+        sb.append(line.status() == 201 ? ",\"etag\":" : ",\"error\":").append(JSONObject.quote(line.message()));
+        out.write(sb.append("}\n").toString());
+    }
+}
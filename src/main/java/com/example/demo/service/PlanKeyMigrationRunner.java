@@ -0,0 +1,38 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Upgrade step: started with {@code --migrate-key-prefix} the application
+ * moves plans stored without {@code plan.redis.key-prefix} under it and
+ * exits. See the README for when to run it.
+ */
+@Component
+public class PlanKeyMigrationRunner implements ApplicationRunner {
+
+    private final PlanService planService;
+    private final ApplicationContext context;
+    private final int pageSize;
+
+    public PlanKeyMigrationRunner(PlanService planService, ApplicationContext context,
+                                  @Value("${plan.migration.page-size:1000}") int pageSize) {
+        this.planService = planService;
+        this.context = context;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption("migrate-key-prefix")) {
+            return;
+        }
+        long moved = planService.migrateUnprefixedKeys(pageSize);
+        System.out.println("🔑 Moved " + moved + " plans under the key prefix");
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+}
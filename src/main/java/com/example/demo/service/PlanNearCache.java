@@ -0,0 +1,191 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional in-process cache of plans (document + ETag) in front of Redis.
+ *
+ * Bounded by entry count and by an estimate of the retained bytes, least
+ * recently used first, and every entry expires after {@code plan.cache.ttl-seconds}.
+ * Writes on any instance invalidate the entry everywhere through the Redis
+ * channel {@code plan.cache.channel} (see PlanCacheConfig); the writer drops
+ * its own entry directly and ignores its own message. Pub/sub is
+ * fire-and-forget, so the TTL is the upper bound on a stale read if an
+ * invalidation is lost.
+ */
+@Component
+public class PlanNearCache {
+
+    // object headers, map entry and the two String instances around the payload
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    // invalidation generations are kept per stripe of keys (a power of two),
+    // so a write to one plan does not stop every other plan from being cached
+    private static final int GENERATION_STRIPES = 1024;
+
+    /**
+     * Counters since startup plus the current size.
+     */
+    public record Stats(boolean enabled, long hits, long misses, long evictions, long invalidations,
+                        int entries, long weightBytes) {}
+
+    private record Entry(PlanService.StoredPlan plan, long weight, long expiresAt) {}
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final String channel;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // access-ordered, guarded by 'this'
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weightBytes;
+    private final long[] generations = new long[GENERATION_STRIPES];   // bumped by invalidations of the stripe
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public PlanNearCache(
+        @Value("${plan.cache.enabled:false}") boolean enabled,
+        @Value("${plan.cache.max-entries:10000}") int maxEntries,
+        @Value("${plan.cache.max-bytes:67108864}") long maxBytes,
+        @Value("${plan.cache.ttl-seconds:30}") long ttlSeconds,
+        @Value("${plan.cache.channel:plan-cache-invalidation}") String channel
+    ) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.channel = channel;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Redis channel carrying the objectIds to invalidate.
+     */
+    public String channel() {
+        return channel;
+    }
+
+    /**
+     * What to publish on {@link #channel} after invalidating locally: the
+     * objectId, tagged with this instance so {@link #onMessage} can skip it.
+     */
+    public String message(String objectId) {
+        return instanceId + '|' + objectId;
+    }
+
+    /**
+     * Applies an invalidation received on {@link #channel}. Messages of this
+     * instance were applied when published; untagged ones (bare objectIds,
+     * from instances predating the tag) are applied as well.
+     */
+    public void onMessage(String message) {
+        int tagLength = instanceId.length();
+        if (message.length() > tagLength && message.charAt(tagLength) == '|') {
+            if (message.startsWith(instanceId)) {
+                return;
+            }
+            message = message.substring(tagLength + 1);
+        }
+        invalidate(message);
+    }
+
+    /**
+     * Returns the cached plan, or null on a miss (always null when disabled).
+     */
+    public PlanService.StoredPlan get(String objectId) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(objectId);
+            if (entry != null && System.nanoTime() - entry.expiresAt() >= 0) {
+                remove(objectId);
+                evictions.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.plan();
+        }
+    }
+
+    /**
+     * Read before going to Redis and hand to {@link #put}: a value read while
+     * the plan (or another plan of its stripe) was invalidated is not cached.
+     */
+    public synchronized long generation(String objectId) {
+        return generations[stripe(objectId)];
+    }
+
+    public void put(String objectId, PlanService.StoredPlan plan, long readGeneration) {
+        if (!enabled || plan == null) {
+            return;
+        }
+        long weight = ENTRY_OVERHEAD_BYTES + plan.json().length() + plan.eTag().length();
+        if (weight > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            if (readGeneration != generations[stripe(objectId)]) {
+                return;
+            }
+            remove(objectId);
+            entries.put(objectId, new Entry(plan, weight, System.nanoTime() + ttlNanos));
+            weightBytes += weight;
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || weightBytes > maxBytes) {
+                weightBytes -= eldest.next().getValue().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidate(String objectId) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            generations[stripe(objectId)]++;
+            remove(objectId);
+        }
+        invalidations.increment();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(enabled, hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(),
+            entries.size(), weightBytes);
+    }
+
+    private static int stripe(String objectId) {
+        int h = objectId.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private void remove(String objectId) {
+        Entry old = entries.remove(objectId);
+        if (old != null) {
+            weightBytes -= old.weight();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.stereotype.Component;
+
+import com.example.demo.model.PlanDiff;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Redis Stream holding plan change events until OutboxRelay has published
+ * them. Entries are appended in the same MULTI (or Lua script) as the write
+ * they describe, so a stored change always has its event and vice versa.
+ *
+ * Each entry holds the fields of one change: 'objectId', 'operation',
+ * 'version' (the plan's write version, incremented by the same script),
+ * 'timestamp', 'data' (the stored plan, empty for deletes) and 'changes'
+ * (the update diff, empty if none). The relay encodes them into the message
+ * format (see PlanMessageCodec). Entries written by earlier releases have a
+ * single 'body' field with a ready JSON envelope instead.
+ */
+@Component
+public class PlanOutbox {
+
+    public static final String OBJECT_ID = "objectId";
+    public static final String OPERATION = "operation";
+    public static final String VERSION = "version";
+    public static final String TIMESTAMP = "timestamp";
+    public static final String DATA = "data";
+    public static final String CHANGES = "changes";
+    public static final String BODY = "body";
+
+    /**
+     * HINCRBY the version in the plan's meta hash (KEYS[1]) and XADD the
+     * event carrying it to the stream (KEYS[2]); ARGV as in {@link #args}.
+     */
+    static final String APPEND_LUA =
+        "local v = redis.call('HINCRBY', KEYS[1], 'version', 1) "
+        + "redis.call('XADD', KEYS[2], '*', 'objectId', ARGV[1], 'operation', ARGV[2], 'version', v, "
+        + "'timestamp', ARGV[3], 'data', ARGV[4], 'changes', ARGV[5]) "
+        + "return v";
+
+    private static final byte[] APPEND_SCRIPT = APPEND_LUA.getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String stream;
+
+    public PlanOutbox(@Value("${plan.outbox.stream:outbox:plan}") String stream) {
+        this.stream = stream;
+    }
+
+    public String stream() {
+        return stream;
+    }
+
+    /**
+     * Script arguments of one change: objectId, operation, timestamp, data, changes.
+     */
+    public List<String> args(String operation, String objectId, String planJson, PlanDiff diff) {
+        String changes;
+        try {
+            changes = diff == null ? "" : mapper.writeValueAsString(diff.toMap());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Could not serialize plan change", e);
+        }
+        return List.of(objectId, operation, String.valueOf(System.currentTimeMillis()),
+            "delete".equals(operation) ? "" : planJson, changes);
+    }
+
+    /**
+     * Orders two stream entry ids ("<ms>-<seq>").
+     */
+    public static int compareIds(String a, String b) {
+        String[] x = a.split("-");
+        String[] y = b.split("-");
+        int c = Long.compare(Long.parseLong(x[0]), Long.parseLong(y[0]));
+        return c != 0 ? c : Long.compare(Long.parseLong(x[1]), Long.parseLong(y[1]));
+    }
+
+    /**
+     * Bumps the plan's version and XADDs its event inside the caller's
+     * transaction. Deletes must call this before removing 'metaKey'.
+     */
+    void append(RedisOperations<String, String> ops, String metaKey, String operation, String objectId,
+                String planJson, PlanDiff diff) {
+        List<String> args = args(operation, objectId, planJson, diff);
+        byte[][] keysAndArgs = new byte[2 + args.size()][];
+        keysAndArgs[0] = metaKey.getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[1] = stream.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < args.size(); i++) {
+            keysAndArgs[2 + i] = args.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        // plain EVAL: an EVALSHA miss would only surface at EXEC
+        ops.execute((RedisCallback<Object>) connection ->
+            connection.scriptingCommands().eval(APPEND_SCRIPT, ReturnType.INTEGER, 2, keysAndArgs));
+    }
+}
@@ -1,42 +1,244 @@
 package com.example.demo.service;
 
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.api.async.RedisKeyAsyncCommands;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
-import com.example.demo.rabbitmq.PlanMessagePublisher;
+import com.example.demo.metrics.PlanMetrics;
+import com.example.demo.model.PlanDiff;
+import com.example.demo.model.PlanDocument;
 
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 public class PlanService {
 
+    // a batch create re-checks existence this many times when racing other writes
+    private static final int CREATE_ATTEMPTS = 5;
+
     private final RedisTemplate<String, String> redisTemplate;
-    private final PlanMessagePublisher publisher; 
+    private final PlanOutbox outbox;
+    private final String keyPrefix;
+    private final PlanStore store;
+    private final PlanNearCache cache;
+    private final PlanMetrics metrics;
 
-    public PlanService(RedisTemplate<String, String> redisTemplate, PlanMessagePublisher publisher) {
+    public PlanService(RedisTemplate<String, String> redisTemplate, PlanOutbox outbox,
+                       PlanNearCache cache, PlanMetrics metrics,
+                       @Value("${plan.redis.key-prefix:plan:}") String keyPrefix,
+                       @Value("${plan.storage.layout:blob}") String layout) {
         this.redisTemplate = redisTemplate;
-        this.publisher = publisher;
+        this.outbox = outbox;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.keyPrefix = keyPrefix;
+        this.store = switch (layout) {
+            case "blob" -> new BlobPlanStore();
+            case "gzip" -> new GzipPlanStore();
+            case "graph" -> new GraphPlanStore();
+            default -> throw new IllegalArgumentException("Unknown plan.storage.layout: " + layout);
+        };
+    }
+
+    /**
+     * One page of plan ids and the cursor to continue from ("0" when done).
+     */
+    public record KeyPage(String cursor, List<String> objectIds) {}
+
+    /**
+     * Redis key of a plan; all plans live under the configured namespace.
+     */
+    String key(String objectId) {
+        return keyPrefix + objectId;
+    }
+
+    /**
+     * Redis hash next to each plan holding its ETag and write version, so
+     * conditional requests can be answered without reading the document.
+     */
+    String metaKey(String objectId) {
+        return "meta:" + key(objectId);
     }
 
+    /**
+     * A plan document together with the ETag it was stored with.
+     */
+    public record StoredPlan(String json, String eTag) {}
+
+    /**
+     * A plan value exactly as stored: gzip-compressed JSON, or plain UTF-8
+     * JSON if it was written before compression was enabled.
+     */
+    public record RawPlan(byte[] bytes, boolean gzip, String eTag) {}
+
     /**
      * Checks if a given objectId exists in Redis.
      */
     public boolean exists(String objectId) {
-        return Boolean.TRUE.equals(redisTemplate.hasKey(objectId));
+        if (cache.get(objectId) != null) {
+            return true;
+        }
+        return Boolean.TRUE.equals(metrics.redis("exists", () -> redisTemplate.hasKey(key(objectId))));
+    }
+
+    /**
+     * Saves the plan JSON using its 'objectId' as the key in Redis. The ETag
+     * is computed once here and stored with the document in the same MULTI,
+     * together with the change event for the outbox (published later by
+     * OutboxRelay, so the request never waits on RabbitMQ).
+     *
+     * @param previous the version being replaced (lets the graph layout
+     *                 write only what changed), or null on create
+     * @return the new ETag
+     */
+    public String save(PlanDocument plan, PlanDocument previous, boolean isCreate) {
+        PlanDocument stored = store.stored(plan);
+        String objectId = stored.objectId();
+        String eTag = stored.eTag();
+        // updates carry the changed children so the indexer can skip the rest
+        PlanDiff diff = previous == null ? null : PlanDiff.between(previous.tree(), stored.tree());
+
+        metrics.redis("save", () -> redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                return write(ops, stored, previous, isCreate ? "create" : "update", diff);
+            }
+        }));
+        invalidate(objectId);
+        return eTag;
+    }
+
+    public String save(PlanDocument plan, boolean isCreate) {
+        return save(plan, null, isCreate);
     }
 
     /**
-     * Saves the plan JSON using 'objectId' as the key in Redis.
+     * Updates the plan only if its stored ETag is still 'expectedETag'. The
+     * meta hash and the plan key are WATCHed before the check, so a write
+     * landing between the check and EXEC aborts the transaction instead of
+     * being overwritten. No lock is held; the loser retries or answers 412.
+     *
+     * @param previous the version the update was computed from, whose ETag
+     *                 is 'expectedETag'
+     * @return the new ETag, or null if the plan changed or was deleted meanwhile
      */
-    public void save(String objectId, String json, boolean isCreate) {
-        redisTemplate.opsForValue().set(objectId, json);
-        publisher.send(isCreate ? "create" : "update", json);
+    public String saveIfMatch(PlanDocument plan, PlanDocument previous, String expectedETag) {
+        PlanDocument stored = store.stored(plan);
+        String objectId = stored.objectId();
+        String key = key(objectId);
+        String metaKey = metaKey(objectId);
+        PlanDiff diff = PlanDiff.between(previous.tree(), stored.tree());
+
+        List<Object> results = metrics.redis("save", () -> redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.watch(List.of(metaKey, key));
+                Object current = ops.opsForHash().get(metaKey, "etag");
+                // no stored ETag: a plan not written since ETags were stored, unchanged if it still exists
+                boolean matches = current != null
+                    ? current.toString().equals(expectedETag)
+                    : Boolean.TRUE.equals(ops.hasKey(key));
+                if (!matches) {
+                    ops.unwatch();
+                    return null;
+                }
+                return write(ops, stored, previous, "update", diff);   // EXEC aborts if a watched key changed
+            }
+        }));
+        if (results == null || results.isEmpty()) {
+            System.out.println("⚠️ Conditional update of " + objectId + " rejected: changed concurrently");
+            return null;
+        }
+        invalidate(objectId);
+        return stored.eTag();
+    }
+
+    // document, ETag and outbox entry in one MULTI
+    private List<Object> write(RedisOperations<String, String> ops, PlanDocument stored, PlanDocument previous,
+                               String operation, PlanDiff diff) {
+        String metaKey = metaKey(stored.objectId());
+        ops.multi();
+        store.write(ops, key(stored.objectId()), stored, previous);
+        ops.opsForHash().put(metaKey, "etag", stored.eTag());
+        outbox.append(ops, metaKey, operation, stored.objectId(), stored.json(), diff);
+        return ops.exec();
     }
 
-    /* convenience for existing code paths that don’t care about create/update */
-    public void save(String objectId, String json) {
-        save(objectId, json, false);
+    /**
+     * Creates the plans that do not exist yet as one MULTI: documents, ETags
+     * and outbox entries of the whole batch become visible together. The
+     * plan keys are WATCHed before the existence check, so a plan created
+     * (or written) concurrently aborts the EXEC and the batch is checked
+     * again instead of being overwritten.
+     *
+     * @return the ETags, in the order of 'plans'; null where a plan with
+     *         that objectId already existed
+     */
+    public List<String> createAll(List<PlanDocument> plans) {
+        List<PlanDocument> stored = plans.stream().map(store::stored).toList();
+        List<String> keys = stored.stream().map(plan -> key(plan.objectId())).toList();
+        for (int attempt = 0; attempt < CREATE_ATTEMPTS; attempt++) {
+            List<String> eTags = metrics.redis("save", () -> redisTemplate.execute(new SessionCallback<List<String>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> List<String> execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.watch(keys);
+                    // one round-trip in the common case where none exists yet
+                    Long existing = ops.countExistingKeys(keys);
+                    List<String> created = new ArrayList<>(stored.size());
+                    for (int i = 0; i < stored.size(); i++) {
+                        boolean exists = existing != null && existing > 0 && Boolean.TRUE.equals(ops.hasKey(keys.get(i)));
+                        created.add(exists ? null : stored.get(i).eTag());
+                    }
+                    if (created.stream().allMatch(eTag -> eTag == null)) {
+                        ops.unwatch();
+                        return created;
+                    }
+                    ops.multi();
+                    for (int i = 0; i < stored.size(); i++) {
+                        if (created.get(i) != null) {
+                            PlanDocument plan = stored.get(i);
+                            String objectId = plan.objectId();
+                            store.write(ops, keys.get(i), plan, null);
+                            ops.opsForHash().put(metaKey(objectId), "etag", plan.eTag());
+                            outbox.append(ops, metaKey(objectId), "create", objectId, plan.json(), null);
+                        }
+                    }
+                    List<Object> results = ops.exec();   // empty if a watched key changed
+                    return results == null || results.isEmpty() ? null : created;
+                }
+            }));
+            if (eTags != null) {
+                // no invalidation: the near-cache only holds plans that existed
+                return eTags;
+            }
+            System.out.println("⚠️ Batch create of " + stored.size() + " plans raced a concurrent write, retrying");
+        }
+        throw new IllegalStateException("Batch create kept racing concurrent writes");
     }
+
     
     
     /**
@@ -44,21 +246,276 @@ public class PlanService {
      * Returns null if not found.
      */
     public String get(String objectId) {
-        return redisTemplate.opsForValue().get(objectId);
+        StoredPlan cached = cache.get(objectId);
+        if (cached != null) {
+            return cached.json();
+        }
+        return metrics.redis("read", () -> store.read(redisTemplate, key(objectId)));
+    }
+
+    /**
+     * Plan JSON of many ids (null where missing), e.g. one MGET for the blob
+     * layout. Bypasses the near-cache.
+     */
+    public List<String> getAll(List<String> objectIds) {
+        return metrics.redis("read", () -> store.readAll(redisTemplate, objectIds.stream().map(this::key).toList()));
     }
 
     /**
-     * Deletes the plan by 'objectId'.
+     * Reads only the stored ETag (a single HGET). Returns null if the plan
+     * does not exist. Plans written before ETags were stored get theirs
+     * computed and back-filled on first access.
+     */
+    public String getETag(String objectId) {
+        StoredPlan cached = cache.get(objectId);
+        if (cached != null) {
+            return cached.eTag();
+        }
+        Object eTag = metrics.redis("etag", () -> redisTemplate.opsForHash().get(metaKey(objectId), "etag"));
+        if (eTag != null) {
+            return eTag.toString();
+        }
+        String json = store.read(redisTemplate, key(objectId));
+        if (json == null) {
+            return null;
+        }
+        String computed = ETags.of(json);
+        redisTemplate.opsForHash().putIfAbsent(metaKey(objectId), "etag", computed);
+        return computed;
+    }
+
+    /**
+     * Reads the document and its ETag as one consistent snapshot, from the
+     * near-cache when enabled. Returns null if not found.
+     */
+    public StoredPlan getWithETag(String objectId) {
+        StoredPlan cached = cache.get(objectId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = cache.generation(objectId);
+        StoredPlan plan = metrics.redis("read", () -> readWithETag(objectId));
+        cache.put(objectId, plan, generation);
+        return plan;
+    }
+
+    /**
+     * True when plans are stored compressed ({@code plan.storage.layout=gzip}),
+     * i.e. {@link #getRaw} can serve them without re-encoding.
+     */
+    public boolean storesGzip() {
+        return store instanceof GzipPlanStore;
+    }
+
+    /**
+     * The stored bytes and ETag as one snapshot, without decompressing or
+     * decoding them; bypasses the near-cache. Returns null if not found.
+     */
+    public RawPlan getRaw(String objectId) {
+        if (!(store instanceof BlobPlanStore blob)) {
+            throw new IllegalStateException("Raw reads need a single-key layout");
+        }
+        List<Object> results = metrics.redis("read", () -> readBlobWithETag(objectId));
+        byte[] value = results == null ? null : (byte[]) results.get(0);
+        if (value == null) {
+            return null;
+        }
+        byte[] eTag = (byte[]) results.get(1);
+        return new RawPlan(value, GzipPlanStore.isGzip(value),
+            eTag != null ? new String(eTag, StandardCharsets.UTF_8) : ETags.of(blob.decode(value)));
+    }
+
+    private StoredPlan readWithETag(String objectId) {
+        String key = key(objectId);
+        String metaKey = metaKey(objectId);
+
+        if (!(store instanceof BlobPlanStore blob)) {
+            // spread over several keys: re-read if a write slipped in between
+            for (int attempt = 0; ; attempt++) {
+                Object before = redisTemplate.opsForHash().get(metaKey, "etag");
+                String json = store.read(redisTemplate, key);
+                if (json == null) {
+                    return null;
+                }
+                Object after = redisTemplate.opsForHash().get(metaKey, "etag");
+                if (after != null && (after.equals(before) || attempt == 2)) {
+                    return new StoredPlan(json, after.toString());
+                }
+                if (after == null) {
+                    return new StoredPlan(json, ETags.of(json));
+                }
+            }
+        }
+
+        List<Object> results = readBlobWithETag(objectId);
+        String json = results == null ? null : blob.decode((byte[]) results.get(0));
+        if (json == null) {
+            return null;
+        }
+        byte[] eTag = (byte[]) results.get(1);
+        return new StoredPlan(json, eTag != null ? new String(eTag, StandardCharsets.UTF_8) : ETags.of(json));
+    }
+
+    // GET + HGET etag in one MULTI, as raw bytes (the value may be compressed)
+    private List<Object> readBlobWithETag(String objectId) {
+        String key = key(objectId);
+        String metaKey = metaKey(objectId);
+        return redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.multi();
+                ops.opsForValue().get(key);
+                ops.opsForHash().get(metaKey, "etag");
+                return ops.exec(RedisSerializer.byteArray());
+            }
+        });
+    }
+
+    /**
+     * Deletes the plan by 'objectId' and queues the delete event in the
+     * same MULTI.
      */
     public void delete(String objectId) {
-        redisTemplate.delete(objectId);
-        publisher.send("delete", "{\"objectId\":\""+objectId+"\"}");
+        String key = key(objectId);
+        String metaKey = metaKey(objectId);
+        PlanDocument current = store instanceof BlobPlanStore ? null : parseOrNull(get(objectId));
+
+        metrics.redis("delete", () -> redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.multi();
+                store.delete(ops, key, current);
+                outbox.append(ops, metaKey, "delete", objectId, null, null);   // reads the version
+                ops.delete(metaKey);
+                return ops.exec();
+            }
+        }));
+        invalidate(objectId);
+    }
+
+    /**
+     * Drops the plan from this instance's near-cache and tells the others to
+     * do the same.
+     */
+    private void invalidate(String objectId) {
+        if (cache.enabled()) {
+            cache.invalidate(objectId);
+            redisTemplate.convertAndSend(cache.channel(), cache.message(objectId));
+        }
+    }
+
+    public PlanNearCache.Stats cacheStats() {
+        return cache.stats();
+    }
+
+    private static PlanDocument parseOrNull(String json) {
+        return json == null ? null : PlanDocument.parse(json);
+    }
+
+    /**
+     * Runs a single SCAN step over the plan namespace, starting at 'cursor'
+     * ("0" for the first page). Never blocks Redis for more than one step;
+     * a page may hold fewer (or slightly more) than 'count' ids.
+     */
+    public KeyPage scanKeys(String cursor, int count) {
+        return redisTemplate.execute((RedisCallback<KeyPage>) connection -> {
+            // Spring's Cursor cannot resume from a client-supplied position,
+            // so go to the Lettuce commands underneath
+            @SuppressWarnings("unchecked")
+            RedisKeyAsyncCommands<byte[], byte[]> commands =
+                (RedisKeyAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            try {
+                KeyScanCursor<byte[]> step = commands.scan(
+                    ScanCursor.of(cursor),
+                    ScanArgs.Builder.matches(globEscape(keyPrefix) + "*").limit(count)).get();
+
+                List<String> ids = new ArrayList<>(step.getKeys().size());
+                for (byte[] rawKey : step.getKeys()) {
+                    ids.add(new String(rawKey, StandardCharsets.UTF_8).substring(keyPrefix.length()));
+                }
+                return new KeyPage(step.isFinished() ? "0" : step.getCursor(), ids);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RedisSystemException("SCAN interrupted", e);
+            } catch (Exception e) {
+                throw new RedisSystemException("SCAN failed", e);
+            }
+        });
+    }
+
+    // SCAN MATCH treats * ? [ ] and \ as pattern syntax
+    static String globEscape(String literal) {
+        StringBuilder sb = new StringBuilder(literal.length());
+        for (char c : literal.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Moves plans stored before the key prefix existed (plain JSON under the
+     * bare objectId) into the prefixed namespace, one SCAN step at a time.
+     * A key is moved only if it holds a plan whose objectId is the key
+     * itself, and RENAMENX never overwrites a plan already stored under the
+     * prefix. Safe to run again; see the README upgrade step.
+     *
+     * @return the number of plans moved
+     */
+    public long migrateUnprefixedKeys(int count) {
+        if (keyPrefix.isEmpty()) {
+            return 0;
+        }
+        long moved = 0;
+        try (Cursor<String> keys = redisTemplate.scan(ScanOptions.scanOptions().count(count).build())) {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (key.startsWith(keyPrefix) || redisTemplate.type(key) != DataType.STRING) {
+                    continue;
+                }
+                if (!isLegacyPlan(key, redisTemplate.opsForValue().get(key))) {
+                    continue;
+                }
+                if (Boolean.TRUE.equals(redisTemplate.renameIfAbsent(key, key(key)))) {
+                    moved++;
+                } else {
+                    System.out.println("⚠️ Not migrating " + key + ": " + key(key) + " already exists");
+                }
+            }
+        }
+        return moved;
+    }
+
+    private static boolean isLegacyPlan(String key, String value) {
+        if (value == null || !value.startsWith("{")) {
+            return false;
+        }
+        try {
+            JSONObject tree = new JSONObject(value);
+            return key.equals(tree.optString("objectId")) && "plan".equals(tree.optString("objectType"));
+        } catch (JSONException e) {
+            return false;
+        }
     }
 
     /**
-     * Returns all Redis keys (for demo/debug only).
+     * Walks the whole plan namespace with SCAN and hands every step's ids to
+     * 'sink', so callers can stream them without holding the keyspace in memory.
      */
-    public Set<String> getAllKeys() {
-        return redisTemplate.keys("*");
+    public void forEachKeyPage(int count, Consumer<List<String>> sink) {
+        String cursor = "0";
+        do {
+            KeyPage page = scanKeys(cursor, count);
+            if (!page.objectIds().isEmpty()) {
+                sink.accept(page.objectIds());
+            }
+            cursor = page.cursor();
+        } while (!"0".equals(cursor));
     }
 }
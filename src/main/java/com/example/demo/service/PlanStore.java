@@ -0,0 +1,52 @@
+package com.example.demo.service;
+
+import org.springframework.data.redis.core.RedisOperations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.demo.model.PlanDocument;
+
+/**
+ * How a plan document is laid out in Redis. Selected with
+ * {@code plan.storage.layout} ({@code blob} or {@code graph}).
+ */
+interface PlanStore {
+
+    /**
+     * The document exactly as {@link #read} will return it after a write,
+     * so the ETag can be computed on the same bytes clients will receive.
+     */
+    PlanDocument stored(PlanDocument plan);
+
+    /**
+     * Queues the commands that store 'plan' under 'key' on 'ops'. Runs
+     * inside the caller's MULTI or pipeline, so it must not read.
+     *
+     * @param previous the version being replaced, or null on create
+     */
+    void write(RedisOperations<String, String> ops, String key, PlanDocument plan, PlanDocument previous);
+
+    /**
+     * Returns the full plan JSON, or null if not found.
+     */
+    String read(RedisOperations<String, String> redis, String key);
+
+    /**
+     * Reads many plans at once (null for missing ones), in the order of 'keys'.
+     */
+    default List<String> readAll(RedisOperations<String, String> redis, List<String> keys) {
+        List<String> plans = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            plans.add(read(redis, key));
+        }
+        return plans;
+    }
+
+    /**
+     * Queues the commands that remove the plan stored under 'key'.
+     *
+     * @param current the stored version, needed by layouts spread over several keys
+     */
+    void delete(RedisOperations<String, String> ops, String key, PlanDocument current);
+}
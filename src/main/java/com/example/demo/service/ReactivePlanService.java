@@ -0,0 +1,176 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.model.PlanDiff;
+import com.example.demo.model.PlanDocument;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Non-blocking counterpart of {@link PlanService} for the "reactive" profile:
+ * same keys, same metadata hash, same near-cache and outbox, on the
+ * reactive Redis client. Multi-key writes run as one Lua script instead of
+ * MULTI/EXEC. Only the blob layout is supported.
+ */
+@Service
+@Profile("reactive")
+public class ReactivePlanService {
+
+    // KEYS: meta, outbox stream, plan (the first two as PlanOutbox.APPEND_LUA expects)
+
+    // SET plan (the outbox 'data' argument), HSET etag, HINCRBY version + XADD
+    // outbox; returns the new version
+    private static final String SAVE_LUA =
+        "redis.call('SET', KEYS[3], ARGV[4]) "
+        + "redis.call('HSET', KEYS[1], 'etag', ARGV[6]) "
+        + PlanOutbox.APPEND_LUA;
+
+    private static final RedisScript<Long> SAVE = RedisScript.of(SAVE_LUA, Long.class);
+
+    // SAVE if the stored etag is still ARGV[7] (a plan without a stored etag
+    // has not been written since, it only has to exist); -1 otherwise
+    private static final RedisScript<Long> SAVE_IF_MATCH = RedisScript.of(
+        "local current = redis.call('HGET', KEYS[1], 'etag') "
+        + "if current ~= ARGV[7] and (current or redis.call('EXISTS', KEYS[3]) == 0) then return -1 end "
+        + SAVE_LUA, Long.class);
+
+    // HINCRBY version + XADD outbox, then DEL plan + meta
+    private static final RedisScript<Long> DELETE = RedisScript.of(
+        "local function append() " + PlanOutbox.APPEND_LUA + " end "
+        + "append() "
+        + "return redis.call('DEL', KEYS[3], KEYS[1])", Long.class);
+
+    // "<etag>\n<document>" (etag empty for legacy plans), nil when missing
+    private static final RedisScript<String> READ = RedisScript.of(
+        "local doc = redis.call('GET', KEYS[1]) "
+        + "if not doc then return false end "
+        + "return (redis.call('HGET', KEYS[2], 'etag') or '') .. '\\n' .. doc", String.class);
+
+    private final ReactiveStringRedisTemplate redis;
+    private final PlanService planService;
+    private final PlanOutbox outbox;
+    private final PlanNearCache cache;
+
+    public ReactivePlanService(ReactiveStringRedisTemplate redis, PlanService planService,
+                               PlanOutbox outbox, PlanNearCache cache,
+                               @Value("${plan.storage.layout:blob}") String layout) {
+        if (!"blob".equals(layout)) {
+            throw new IllegalStateException("The reactive profile supports plan.storage.layout=blob only");
+        }
+        this.redis = redis;
+        this.planService = planService;
+        this.outbox = outbox;
+        this.cache = cache;
+    }
+
+    public Mono<Boolean> exists(String objectId) {
+        if (cache.get(objectId) != null) {
+            return Mono.just(true);
+        }
+        return redis.hasKey(planService.key(objectId));
+    }
+
+    /**
+     * Stores the plan, its ETag and the outbox entry atomically.
+     *
+     * @return the new ETag
+     */
+    public Mono<String> save(PlanDocument plan, PlanDocument previous, boolean isCreate) {
+        String objectId = plan.objectId();
+        String eTag = plan.eTag();
+        PlanDiff diff = previous == null ? null : PlanDiff.between(previous.tree(), plan.tree());
+        List<String> args = new ArrayList<>(outbox.args(isCreate ? "create" : "update", objectId, plan.json(), diff));
+        args.add(eTag);
+        return redis.execute(SAVE,
+                List.of(planService.metaKey(objectId), outbox.stream(), planService.key(objectId)), args)
+            .then(Mono.defer(() -> invalidate(objectId)))
+            .thenReturn(eTag);
+    }
+
+    /**
+     * Updates the plan only if its stored ETag is still 'expectedETag'; the
+     * check and the write run in one script, so concurrent updates of the
+     * same version cannot both succeed.
+     *
+     * @return the new ETag, empty if the plan changed or was deleted meanwhile
+     */
+    public Mono<String> saveIfMatch(PlanDocument plan, PlanDocument previous, String expectedETag) {
+        String objectId = plan.objectId();
+        String eTag = plan.eTag();
+        PlanDiff diff = PlanDiff.between(previous.tree(), plan.tree());
+        List<String> args = new ArrayList<>(outbox.args("update", objectId, plan.json(), diff));
+        args.add(eTag);
+        args.add(expectedETag);
+        return redis.execute(SAVE_IF_MATCH,
+                List.of(planService.metaKey(objectId), outbox.stream(), planService.key(objectId)), args)
+            .next()
+            .filter(version -> version >= 0)
+            .flatMap(version -> invalidate(objectId).thenReturn(eTag));
+    }
+
+    /**
+     * The stored ETag only; empty if the plan does not exist.
+     */
+    public Mono<String> getETag(String objectId) {
+        PlanService.StoredPlan cached = cache.get(objectId);
+        if (cached != null) {
+            return Mono.just(cached.eTag());
+        }
+        return redis.<String, String>opsForHash().get(planService.metaKey(objectId), "etag")
+            .switchIfEmpty(Mono.defer(() -> getWithETag(objectId).map(PlanService.StoredPlan::eTag)));
+    }
+
+    /**
+     * Document and ETag as one snapshot; empty if not found.
+     */
+    public Mono<PlanService.StoredPlan> getWithETag(String objectId) {
+        PlanService.StoredPlan cached = cache.get(objectId);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        long generation = cache.generation(objectId);
+        return redis.execute(READ, List.of(planService.key(objectId), planService.metaKey(objectId)))
+            .next()
+            .map(result -> {
+                int split = result.indexOf('\n');
+                String json = result.substring(split + 1);
+                String eTag = result.substring(0, split);
+                return new PlanService.StoredPlan(json, eTag.isEmpty() ? ETags.of(json) : eTag);
+            })
+            .doOnNext(plan -> cache.put(objectId, plan, generation));
+    }
+
+    public Mono<Void> delete(String objectId) {
+        return redis.execute(DELETE,
+                List.of(planService.metaKey(objectId), outbox.stream(), planService.key(objectId)),
+                outbox.args("delete", objectId, null, null))
+            .then(Mono.defer(() -> invalidate(objectId)));
+    }
+
+    /**
+     * Every plan id, streamed as SCAN advances.
+     */
+    public Flux<String> keys(int count) {
+        String prefix = planService.key("");
+        return redis.scan(ScanOptions.scanOptions().match(PlanService.globEscape(prefix) + "*").count(count).build())
+            .map(key -> key.substring(prefix.length()));
+    }
+
+    private Mono<Void> invalidate(String objectId) {
+        if (!cache.enabled()) {
+            return Mono.empty();
+        }
+        cache.invalidate(objectId);
+        return redis.convertAndSend(cache.channel(), cache.message(objectId)).then();
+    }
+}
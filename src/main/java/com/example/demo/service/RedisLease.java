@@ -0,0 +1,66 @@
+package com.example.demo.service;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A lease held in one Redis key: taken with SET NX and a TTL, renewed and
+ * released only while the key still holds this holder's id. The check and
+ * the PEXPIRE / DEL run in one script, so a holder whose lease expired can
+ * never extend or drop the lease of the instance that took it over.
+ */
+public class RedisLease {
+
+    // PEXPIRE KEYS[1] to ARGV[2] ms if it still holds ARGV[1]
+    private static final RedisScript<Long> RENEW = RedisScript.of(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+        + "return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return 0", Long.class);
+
+    // DEL KEYS[1] if it still holds ARGV[1]
+    private static final RedisScript<Long> RELEASE = RedisScript.of(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+        + "return redis.call('DEL', KEYS[1]) end return 0", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String key;
+    private final Duration ttl;
+    private final String holder = UUID.randomUUID().toString();
+
+    public RedisLease(RedisTemplate<String, String> redisTemplate, String key, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.key = key;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Takes the lease if free, renews it if held by this instance.
+     *
+     * @return true while this instance holds the lease
+     */
+    public boolean acquireOrRenew() {
+        if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, holder, ttl))) {
+            return true;
+        }
+        return renew();
+    }
+
+    /**
+     * Extends the lease if this instance still holds it; never takes it.
+     */
+    public boolean renew() {
+        Long renewed = redisTemplate.execute(RENEW, List.of(key), holder, String.valueOf(ttl.toMillis()));
+        return renewed != null && renewed == 1;
+    }
+
+    public void release() {
+        redisTemplate.execute(RELEASE, List.of(key), holder);
+    }
+
+    public Duration ttl() {
+        return ttl;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.demo.validation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A JSON Schema compiled into a tree of specialised checks that run over an
+ * already parsed org.json tree.
+ *
+ * Supports the draft-07 subset the plan schema uses: type, properties,
+ * required, additionalProperties (boolean) and items (single schema);
+ * other keywords are ignored. The happy path allocates nothing but one
+ * pointer stack per call; failures are collected as plain objects and
+ * turned into a single {@link SchemaValidationException} whose message
+ * matches everit's.
+ */
+public final class CompiledSchema {
+
+    /** A violation, or (with causes) an aggregate of several. */
+    record Failure(String pointer, String message, int count, List<Failure> causes) {
+
+        static Failure of(String pointer, String message) {
+            return new Failure(pointer, message, 1, List.of());
+        }
+
+        // everit: one failure is rethrown as is, several are wrapped at the
+        // current pointer and counted by leaf violations
+        static Failure aggregate(String pointer, List<Failure> failures) {
+            if (failures.size() == 1) {
+                return failures.get(0);
+            }
+            int count = 0;
+            for (Failure f : failures) {
+                count += f.count();
+            }
+            return new Failure(pointer, count + " schema violations found", count, List.copyOf(failures));
+        }
+    }
+
+    /** JSON pointer of the value being validated, rendered only on failure. */
+    static final class Path {
+        private final String[] segments = new String[64];
+        private int depth;
+
+        void push(String segment) {
+            segments[depth++] = segment;
+        }
+
+        void pop() {
+            depth--;
+        }
+
+        String pointer() {
+            StringBuilder sb = new StringBuilder("#");
+            for (int i = 0; i < depth; i++) {
+                sb.append('/').append(segments[i].replace("~", "~0").replace("/", "~1"));
+            }
+            return sb.toString();
+        }
+    }
+
+    interface Check {
+        /** Returns null if 'value' is valid. */
+        Failure check(Object value, Path path);
+    }
+
+    private final Check root;
+
+    private CompiledSchema(Check root) {
+        this.root = root;
+    }
+
+    public static CompiledSchema compile(JSONObject schema) {
+        return new CompiledSchema(compileNode(schema));
+    }
+
+    public void validate(Object subject) {
+        Failure failure = root.check(subject, new Path());
+        if (failure != null) {
+            throw new SchemaValidationException(failure);
+        }
+    }
+
+    public boolean isValid(Object subject) {
+        return root.check(subject, new Path()) == null;
+    }
+
+    // =========================================
+    // Compilation
+    // =========================================
+    private static Check compileNode(JSONObject schema) {
+        String type = schema.optString("type", null);
+
+        if ("object".equals(type) || (type == null && schema.has("properties"))) {
+            return compileObject(schema, type != null);
+        }
+        if ("array".equals(type) || (type == null && schema.has("items"))) {
+            Check items = schema.optJSONObject("items") != null ? compileNode(schema.getJSONObject("items")) : null;
+            return new ArrayCheck(type != null, items);
+        }
+        if (type == null) {
+            return (value, path) -> null;
+        }
+        return switch (type) {
+            case "string" -> new TypeCheck(String.class, "String");
+            case "number" -> new TypeCheck(Number.class, "Number");
+            case "integer" -> new IntegerCheck();
+            case "boolean" -> new TypeCheck(Boolean.class, "Boolean");
+            case "null" -> (value, path) -> value == JSONObject.NULL ? null
+                : Failure.of(path.pointer(), "expected: null, found: " + typeName(value));
+            default -> throw new IllegalArgumentException("Unsupported schema type: " + type);
+        };
+    }
+
+    private static Check compileObject(JSONObject schema, boolean requiresObject) {
+        Map<String, Check> properties = new HashMap<>();
+        List<String> propertyOrder = new ArrayList<>();
+        JSONObject props = schema.optJSONObject("properties");
+        if (props != null) {
+            for (String name : props.keySet()) {
+                properties.put(name, compileNode(props.getJSONObject(name)));
+                propertyOrder.add(name);
+            }
+        }
+
+        JSONArray req = schema.optJSONArray("required");
+        String[] required = new String[req == null ? 0 : req.length()];
+        for (int i = 0; i < required.length; i++) {
+            required[i] = req.getString(i);
+        }
+
+        boolean additionalAllowed = schema.optBoolean("additionalProperties", true);
+        return new ObjectCheck(requiresObject, required, propertyOrder.toArray(new String[0]),
+            properties, additionalAllowed);
+    }
+
+    static String typeName(Object value) {
+        return value == null ? "null" : value.getClass().getSimpleName();
+    }
+
+    // =========================================
+    // Checks
+    // =========================================
+    private record TypeCheck(Class<?> type, String name) implements Check {
+        @Override
+        public Failure check(Object value, Path path) {
+            return type.isInstance(value) ? null
+                : Failure.of(path.pointer(), "expected type: " + name + ", found: " + typeName(value));
+        }
+    }
+
+    private static final class IntegerCheck implements Check {
+        @Override
+        public Failure check(Object value, Path path) {
+            if (value instanceof Integer || value instanceof Long || value instanceof java.math.BigInteger) {
+                return null;
+            }
+            return Failure.of(path.pointer(), "expected type: Integer, found: " + typeName(value));
+        }
+    }
+
+    private record ArrayCheck(boolean requiresArray, Check items) implements Check {
+        @Override
+        public Failure check(Object value, Path path) {
+            if (!(value instanceof JSONArray arr)) {
+                return requiresArray
+                    ? Failure.of(path.pointer(), "expected type: JSONArray, found: " + typeName(value))
+                    : null;
+            }
+            if (items == null) {
+                return null;
+            }
+
+            List<Failure> failures = null;
+            for (int i = 0; i < arr.length(); i++) {
+                path.push(Integer.toString(i));
+                Failure f = items.check(arr.get(i), path);
+                path.pop();
+                if (f != null) {
+                    if (failures == null) {
+                        failures = new ArrayList<>();
+                    }
+                    failures.add(f);
+                }
+            }
+            return failures == null ? null : Failure.aggregate(path.pointer(), failures);
+        }
+    }
+
+    private record ObjectCheck(boolean requiresObject, String[] required, String[] propertyOrder,
+                               Map<String, Check> properties, boolean additionalAllowed) implements Check {
+        @Override
+        public Failure check(Object value, Path path) {
+            if (!(value instanceof JSONObject obj)) {
+                return requiresObject
+                    ? Failure.of(path.pointer(), "expected type: JSONObject, found: " + typeName(value))
+                    : null;
+            }
+
+            List<Failure> failures = null;
+
+            for (String name : required) {
+                if (!obj.has(name)) {
+                    failures = add(failures, Failure.of(path.pointer(), "required key [" + name + "] not found"));
+                }
+            }
+
+            for (String name : propertyOrder) {
+                Object child = obj.opt(name);
+                if (child != null) {
+                    path.push(name);
+                    Failure f = properties.get(name).check(child, path);
+                    path.pop();
+                    if (f != null) {
+                        failures = add(failures, f);
+                    }
+                }
+            }
+
+            if (!additionalAllowed) {
+                for (String name : obj.keySet()) {
+                    if (!properties.containsKey(name)) {
+                        failures = add(failures, Failure.of(path.pointer(), "extraneous key [" + name + "] is not permitted"));
+                    }
+                }
+            }
+
+            return failures == null ? null : Failure.aggregate(path.pointer(), failures);
+        }
+
+        private static List<Failure> add(List<Failure> failures, Failure f) {
+            List<Failure> list = failures == null ? new ArrayList<>() : failures;
+            list.add(f);
+            return list;
+        }
+    }
+}
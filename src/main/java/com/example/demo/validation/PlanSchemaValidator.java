@@ -0,0 +1,50 @@
+package com.example.demo.validation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Validates plans against {@code schema/plan-schema.json}, compiled once at
+ * startup.
+ */
+@Component
+public class PlanSchemaValidator {
+
+    static final String SCHEMA_RESOURCE = "/schema/plan-schema.json";
+
+    private final JSONObject rawSchema;
+    private final CompiledSchema schema;
+
+    public PlanSchemaValidator() {
+        this.rawSchema = loadSchema();
+        this.schema = CompiledSchema.compile(rawSchema);
+    }
+
+    /**
+     * @throws SchemaValidationException with everit-compatible messages
+     */
+    public void validate(JSONObject plan) {
+        schema.validate(plan);
+    }
+
+    /** The schema as written, e.g. to compare against other validators. */
+    public JSONObject rawSchema() {
+        return new JSONObject(rawSchema.toString());
+    }
+
+    static JSONObject loadSchema() {
+        try (InputStream in = PlanSchemaValidator.class.getResourceAsStream(SCHEMA_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing " + SCHEMA_RESOURCE);
+            }
+            return new JSONObject(new JSONTokener(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
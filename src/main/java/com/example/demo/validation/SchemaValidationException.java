@@ -0,0 +1,39 @@
+package com.example.demo.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thrown by {@link CompiledSchema#validate}. Messages follow everit's
+ * ValidationException format, e.g. {@code #/planCostShares: required key
+ * [copay] not found} or {@code #: 3 schema violations found}.
+ */
+public class SchemaValidationException extends RuntimeException {
+
+    private final CompiledSchema.Failure failure;
+
+    SchemaValidationException(CompiledSchema.Failure failure) {
+        super(failure.pointer() + ": " + failure.message(), null, false, false);
+        this.failure = failure;
+    }
+
+    public int getViolationCount() {
+        return failure.count();
+    }
+
+    /** Every leaf violation, each prefixed with its JSON pointer. */
+    public List<String> getAllMessages() {
+        List<String> messages = new ArrayList<>();
+        collect(failure, messages);
+        return messages;
+    }
+
+    private static void collect(CompiledSchema.Failure failure, List<String> out) {
+        if (failure.causes().isEmpty()) {
+            out.add(failure.pointer() + ": " + failure.message());
+        }
+        for (CompiledSchema.Failure cause : failure.causes()) {
+            collect(cause, out);
+        }
+    }
+}
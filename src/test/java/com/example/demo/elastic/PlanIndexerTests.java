@@ -0,0 +1,93 @@
+package com.example.demo.elastic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+
+/**
+ * Delete query for plans indexed before manifests existed; nothing here
+ * talks to Elasticsearch.
+ */
+class PlanIndexerTests {
+
+	private static final int SHARDS = 3;
+	private static final String PARENT = "plan_join.parent";
+
+	/** A legacy document: its id, routing and join parent. */
+	record Doc(String id, String routing, String parent) {
+		int shard() {
+			return Math.floorMod(routing.hashCode(), SHARDS);
+		}
+	}
+
+	// children routed by the plan, grandchildren by their linked plan service
+	private static final List<Doc> LEGACY = List.of(
+		new Doc("p1", "p1", null),
+		new Doc("c1", "p1", "p1"),
+		new Doc("s1", "p1", "p1"),
+		new Doc("l1", "s1", "s1"),
+		new Doc("c2", "s1", "s1"),
+		new Doc("s2", "p1", "p1"),
+		new Doc("l2", "s2", "s2"),
+		new Doc("c3", "s2", "s2"),
+		new Doc("p2", "p2", null),
+		new Doc("s9", "p2", "p2"),
+		new Doc("l9", "s9", "s9"));
+
+	/**
+	 * Evaluates the query one document at a time, as every shard does on
+	 * its own; anything that needs another document (has_parent) fails.
+	 */
+	private static boolean matches(Query query, Doc doc) {
+		return switch (query._kind()) {
+			case Bool -> query.bool().should().stream().anyMatch(q -> matches(q, doc));
+			case Ids -> query.ids().values().contains(doc.id());
+			case Term -> PARENT.equals(query.term().field())
+				&& query.term().value().stringValue().equals(doc.parent());
+			case Terms -> PARENT.equals(query.terms().field())
+				&& query.terms().terms().value().stream().map(FieldValue::stringValue)
+					.anyMatch(parent -> parent.equals(doc.parent()));
+			default -> {
+				fail("Not evaluable per document: " + query._kind());
+				yield false;
+			}
+		};
+	}
+
+	@Test
+	void fixtureSpreadsTheFamilyOverShards() {
+		Set<Integer> shards = LEGACY.stream().filter(d -> !d.routing().equals("p2") && !d.routing().equals("s9"))
+			.map(Doc::shard).collect(Collectors.toSet());
+		// on a single shard has_parent would have found the grandchildren too
+		assertTrue(shards.size() > 1, "fixture needs more than one shard: " + shards);
+	}
+
+	@Test
+	void legacyDeleteReachesGrandchildrenOnOtherShards() {
+		Query query = PlanIndexer.legacyDeleteQuery("p1", List.of("c1", "s1", "s2"));
+
+		Map<Boolean, Set<String>> matched = LEGACY.stream().collect(Collectors.partitioningBy(
+			d -> matches(query, d), Collectors.mapping(Doc::id, Collectors.toSet())));
+		assertEquals(Set.of("p1", "c1", "s1", "l1", "c2", "s2", "l2", "c3"), matched.get(true));
+		assertEquals(Set.of("p2", "s9", "l9"), matched.get(false));
+	}
+
+	@Test
+	void planWithoutChildrenDeletesOnlyTheRoot() {
+		Query query = PlanIndexer.legacyDeleteQuery("p2", List.of());
+
+		assertEquals(2, query.bool().should().size());
+		assertEquals(Set.of("p2", "s9"),
+			LEGACY.stream().filter(d -> matches(query, d)).map(Doc::id).collect(Collectors.toSet()));
+	}
+}
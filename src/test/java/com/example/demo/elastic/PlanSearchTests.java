@@ -0,0 +1,129 @@
+package com.example.demo.elastic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+
+/**
+ * Filter translation and cursors; nothing here talks to Elasticsearch.
+ */
+class PlanSearchTests {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final PlanSearch join = new PlanSearch(null, new IndexLayout("join"), "1m", 0, 10);
+	private final PlanSearch nested = new PlanSearch(null, new IndexLayout("nested"), "1m", 0, 10);
+
+	private JsonNode json(String text) throws Exception {
+		return mapper.readTree(text);
+	}
+
+	private static List<Query> filters(Query query) {
+		return query.bool().filter();
+	}
+
+	private void assertRejected(PlanSearch search, String filter, String message) throws Exception {
+		JsonNode node = json(filter);
+		SearchException e = assertThrows(SearchException.class, () -> search.toQuery(node));
+		assertEquals(400, e.getStatus());
+		assertTrue(e.getMessage().contains(message), e.getMessage());
+	}
+
+	@Test
+	void plainFieldsBecomeFilters() throws Exception {
+		List<Query> filters = filters(join.toQuery(json("""
+			{"_org": "example.com", "planType": "inNetwork", "copay": {"gte": 1, "lte": 50}}
+			""")));
+
+		assertEquals(3, filters.size());
+		assertEquals("_org", filters.get(0).term().field());
+		assertEquals("example.com", filters.get(0).term().value().stringValue());
+		assertEquals("planType", filters.get(1).match().field());
+		assertEquals("copay", filters.get(2).range().field());
+		assertEquals(1, filters.get(2).range().gte().to(Integer.class));
+		assertEquals(50, filters.get(2).range().lte().to(Integer.class));
+	}
+
+	@Test
+	void joinLayoutUsesHasChildAndHasParent() throws Exception {
+		Query query = join.toQuery(json("""
+			{"hasChild": {"type": "planCostShares", "filter": {"copay": {"lte": 50}}},
+			 "hasParent": {"type": "plan", "filter": {"_org": "example.com"}}}
+			"""));
+
+		Query hasChild = filters(query).get(0);
+		assertEquals("planCostShares", hasChild.hasChild().type());
+		assertEquals("copay", filters(hasChild.hasChild().query()).get(0).range().field());
+		Query hasParent = filters(query).get(1);
+		assertEquals("plan", hasParent.hasParent().parentType());
+		assertEquals("_org", filters(hasParent.hasParent().query()).get(0).term().field());
+	}
+
+	@Test
+	void nestedLayoutPrefixesFieldsAndNestsServices() throws Exception {
+		Query query = nested.toQuery(json("""
+			{"hasChild": {"type": "linkedPlanServices", "filter": {
+			   "hasChild": {"type": "linkedService", "filter": {"name": "checkup"}},
+			   "copay": {"lte": 20}}}}
+			"""));
+
+		Query services = filters(query).get(0);
+		assertEquals("linkedPlanServices", services.nested().path());
+		List<Query> inner = filters(services.nested().query());
+		assertEquals("linkedPlanServices.linkedService.name", filters(inner.get(0)).get(0).term().field());
+		assertEquals("linkedPlanServices.copay", inner.get(1).range().field());
+
+		Query costShares = filters(nested.toQuery(json("""
+			{"hasChild": {"type": "planCostShares", "filter": {"deductible": {"gt": 100}}}}
+			"""))).get(0);
+		assertEquals("planCostShares.deductible", filters(costShares).get(0).range().field());
+	}
+
+	@Test
+	void invalidFiltersAreRejected() throws Exception {
+		assertRejected(join, "[]", "must be a JSON object");
+		assertRejected(join, "{\"color\": \"red\"}", "Unsupported filter field: color");
+		assertRejected(join, "{\"_org\": \"\"}", "'_org' must be a non-empty string");
+		assertRejected(join, "{\"objectId\": 5}", "'objectId' must be a non-empty string");
+		assertRejected(join, "{\"copay\": {\"lte\": \"cheap\"}}", "'copay.lte' must be a number");
+		assertRejected(join, "{\"hasChild\": {\"filter\": {}}}", "'hasChild.type'");
+		assertRejected(nested, "{\"hasParent\": {\"type\": \"plan\", \"filter\": {}}}", "hasParent is not supported");
+		assertRejected(nested, "{\"hasChild\": {\"type\": \"linkedService\", \"filter\": {}}}",
+			"Unsupported hasChild type");
+	}
+
+	@Test
+	void cursorRoundTrip() throws Exception {
+		JsonNode filter = json("{\"_org\": \"example.com\", \"copay\": {\"lte\": 50}}");
+		String cursor = join.encodeCursor("pit-1",
+			List.of(FieldValue.of(42L), FieldValue.of(1.5), FieldValue.of(true), FieldValue.of("x")), filter);
+
+		// URL-safe, so it can travel in a query string as well
+		assertTrue(cursor.matches("[A-Za-z0-9_-]+"), cursor);
+		JsonNode state = join.decodeCursor(cursor);
+		assertEquals("pit-1", state.path("pit").asText());
+		assertEquals(filter, state.path("filter"));
+
+		JsonNode after = state.path("after");
+		assertEquals(42L, PlanSearch.toFieldValue(after.get(0)).longValue());
+		assertEquals(1.5, PlanSearch.toFieldValue(after.get(1)).doubleValue());
+		assertEquals(true, PlanSearch.toFieldValue(after.get(2)).booleanValue());
+		assertEquals("x", PlanSearch.toFieldValue(after.get(3)).stringValue());
+	}
+
+	@Test
+	void malformedCursorIsRejected() {
+		SearchException e = assertThrows(SearchException.class, () -> join.decodeCursor("not a cursor!"));
+		assertEquals(400, e.getStatus());
+		assertThrows(SearchException.class, () -> join.search(null, 10, "bm90IGpzb24"));
+	}
+}
@@ -0,0 +1,99 @@
+package com.example.demo.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class PlanDiffTests {
+
+	private static JSONObject plan() {
+		return new JSONObject(PlanGraphTests.PLAN);
+	}
+
+	@Test
+	void identicalPlansHaveNoDifference() {
+		PlanDiff diff = PlanDiff.between(plan(), plan());
+
+		assertTrue(diff.isEmpty());
+	}
+
+	@Test
+	void childEditMarksOnlyTheChild() {
+		JSONObject next = plan();
+		next.getJSONArray("linkedPlanServices").getJSONObject(1)
+			.getJSONObject("planserviceCostShares").put("copay", 50);
+
+		PlanDiff diff = PlanDiff.between(plan(), next);
+
+		assertEquals(Set.of("c3"), diff.changed());
+		assertTrue(diff.removed().isEmpty());
+	}
+
+	@Test
+	void rootFieldEditMarksOnlyTheRoot() {
+		JSONObject next = plan();
+		next.put("planType", "outOfNetwork");
+
+		assertEquals(Set.of("p1"), PlanDiff.between(plan(), next).changed());
+	}
+
+	@Test
+	void removedServiceTakesItsChildrenWithParents() {
+		JSONObject next = plan();
+		next.getJSONArray("linkedPlanServices").remove(0);
+
+		PlanDiff diff = PlanDiff.between(plan(), next);
+
+		assertTrue(diff.changed().isEmpty());
+		assertEquals(Set.of(
+			new PlanDiff.Removed("s1", "p1"),
+			new PlanDiff.Removed("l1", "s1"),
+			new PlanDiff.Removed("c2", "s1")), Set.copyOf(diff.removed()));
+	}
+
+	@Test
+	void addedAndMovedObjectsAreChanged() {
+		JSONObject next = plan();
+		next.getJSONArray("linkedPlanServices").put(new JSONObject("""
+			{"objectId": "s3", "objectType": "planservice",
+			 "linkedService": {"objectId": "l3", "objectType": "service", "name": "x-ray"}}
+			"""));
+		// same object under another parent
+		JSONObject service = next.getJSONArray("linkedPlanServices").getJSONObject(0);
+		next.getJSONArray("linkedPlanServices").getJSONObject(1)
+			.put("linkedService", service.remove("linkedService"));
+
+		PlanDiff diff = PlanDiff.between(plan(), next);
+
+		assertEquals(Set.of("s3", "l3", "l1"), diff.changed());
+		assertEquals(List.of(new PlanDiff.Removed("l2", "s2")), diff.removed());
+		assertFalse(diff.isEmpty());
+	}
+
+	@Test
+	void messageForm() {
+		JSONObject next = plan();
+		next.getJSONObject("planCostShares").put("copay", 11);
+		next.getJSONArray("linkedPlanServices").remove(1);
+
+		Map<String, Object> map = PlanDiff.between(plan(), next).toMap();
+
+		assertEquals(List.of("c1"), map.get("index"));
+		JSONArray deletes = new JSONObject(map).getJSONArray("delete");
+		assertEquals(3, deletes.length());
+		Map<String, String> parents = new HashMap<>();
+		for (int i = 0; i < deletes.length(); i++) {
+			parents.put(deletes.getJSONObject(i).getString("id"), deletes.getJSONObject(i).getString("parent"));
+		}
+		assertEquals(Map.of("s2", "p1", "l2", "s2", "c3", "s2"), parents);
+	}
+}
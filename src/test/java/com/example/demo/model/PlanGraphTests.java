@@ -0,0 +1,100 @@
+package com.example.demo.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class PlanGraphTests {
+
+	static final String PLAN = """
+		{"objectId": "p1", "objectType": "plan", "_org": "example.com", "planType": "inNetwork",
+		 "planCostShares": {"objectId": "c1", "objectType": "membercostshare", "copay": 10},
+		 "linkedPlanServices": [
+		   {"objectId": "s1", "objectType": "planservice",
+		    "linkedService": {"objectId": "l1", "objectType": "service", "name": "checkup"},
+		    "planserviceCostShares": {"objectId": "c2", "objectType": "membercostshare", "copay": 0}},
+		   {"objectId": "s2", "objectType": "planservice",
+		    "linkedService": {"objectId": "l2", "objectType": "service", "name": "vaccine"},
+		    "planserviceCostShares": {"objectId": "c3", "objectType": "membercostshare", "copay": 5}}],
+		 "meta": {"notIdentified": true}}
+		""";
+
+	private static Map<String, String> bodies(PlanGraph graph) {
+		Map<String, String> bodies = new LinkedHashMap<>();
+		graph.nodes().values().forEach(node -> bodies.put(node.key(), node.body()));
+		return bodies;
+	}
+
+	private static Map<String, Map<String, String>> relations(PlanGraph graph) {
+		Map<String, Map<String, String>> relations = new LinkedHashMap<>();
+		graph.nodes().values().forEach(node -> relations.put(node.key(), node.relations()));
+		return relations;
+	}
+
+	@Test
+	void decomposesIntoOneNodePerIdentifiedObject() {
+		PlanGraph graph = PlanGraph.of(new JSONObject(PLAN), "plan:p1");
+
+		assertEquals(8, graph.nodes().size());
+		PlanGraph.Node root = graph.nodes().get("plan:p1");
+		JSONObject rootBody = new JSONObject(root.body());
+		assertEquals("inNetwork", rootBody.getString("planType"));
+		// unidentified objects stay in the body, identified ones become relations
+		assertTrue(rootBody.has("meta"));
+		assertFalse(rootBody.has("planCostShares"));
+		assertFalse(rootBody.has("linkedPlanServices"));
+		assertEquals("node:plan:p1/membercostshare:c1", root.relations().get("planCostShares"));
+		assertEquals(List.of("node:plan:p1/planservice:s1", "node:plan:p1/planservice:s2"),
+			new JSONArray(root.relations().get("linkedPlanServices")).toList());
+
+		PlanGraph.Node service = graph.nodes().get("node:plan:p1/service:l2");
+		assertEquals("l2", service.objectId());
+		assertEquals("node:plan:p1/planservice:s2", service.parentKey());
+		assertNull(root.parentKey());
+	}
+
+	@Test
+	void assemblesTheOriginalPlan() {
+		PlanGraph graph = PlanGraph.of(new JSONObject(PLAN), "plan:p1");
+
+		assertTrue(new JSONObject(PLAN).similar(graph.assemble()));
+		// from the stored form, as GraphPlanStore reads it back
+		JSONObject stored = PlanGraph.assemble("plan:p1", bodies(graph), relations(graph));
+		assertEquals(graph.assemble().toString(), stored.toString());
+	}
+
+	@Test
+	void childrenBelongToTheirPlan() {
+		JSONObject other = new JSONObject(PLAN);
+		other.put("objectId", "p2");
+
+		String first = PlanGraph.childKey("plan:p1", new JSONObject(PLAN).getJSONObject("planCostShares"));
+		String second = PlanGraph.childKey("plan:p2", other.getJSONObject("planCostShares"));
+		assertNotEquals(first, second);
+		assertTrue(PlanGraph.of(other, "plan:p2").nodes().containsKey(second));
+	}
+
+	@Test
+	void missingRootIsNullAndMissingChildFails() {
+		PlanGraph graph = PlanGraph.of(new JSONObject(PLAN), "plan:p1");
+		Map<String, String> bodies = bodies(graph);
+
+		assertNull(PlanGraph.assemble("plan:gone", bodies, relations(graph)));
+
+		bodies.remove("node:plan:p1/service:l1");
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+			() -> PlanGraph.assemble("plan:p1", bodies, relations(graph)));
+		assertTrue(e.getMessage().contains("node:plan:p1/service:l1"), e.getMessage());
+	}
+}
@@ -0,0 +1,210 @@
+package com.example.demo.patch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class JsonMergerTests {
+
+	private final JsonMerger merger = new JsonMerger();
+
+	private static final String PLAN = """
+		{"objectId": "p1", "objectType": "plan", "planType": "inNetwork", "tags": ["a", "b"],
+		 "planCostShares": {"objectId": "c1", "objectType": "membercostshare", "copay": 10, "deductible": 100},
+		 "linkedPlanServices": [
+		   {"objectId": "s1", "objectType": "planservice", "x": 1},
+		   {"objectId": "s2", "objectType": "planservice", "x": 2}]}
+		""";
+
+	private static void assertJson(String expected, JSONObject actual) {
+		assertTrue(new JSONObject(expected).similar(actual), "got " + actual);
+	}
+
+	private JSONObject patch(String target, String operations) {
+		return merger.jsonPatch(new JSONObject(target), new JSONArray(operations));
+	}
+
+	private void assertPatchFails(String target, String operations, String message) {
+		PatchException e = assertThrows(PatchException.class, () -> patch(target, operations));
+		assertTrue(e.getMessage().contains(message), e.getMessage());
+	}
+
+	/* ----- mergeById ----- */
+
+	@Test
+	void mergeByIdMergesArrayItemsOnObjectId() {
+		JSONObject source = new JSONObject(PLAN);
+		JSONObject merged = merger.mergeById(source, new JSONObject("""
+			{"linkedPlanServices": [
+			   {"objectId": "s2", "x": 3},
+			   {"objectId": "s3", "objectType": "planservice", "x": 4}],
+			 "planCostShares": {"copay": 20}}
+			"""));
+
+		JSONArray services = merged.getJSONArray("linkedPlanServices");
+		assertEquals(3, services.length());
+		assertJson("{\"objectId\":\"s1\",\"objectType\":\"planservice\",\"x\":1}", services.getJSONObject(0));
+		assertJson("{\"objectId\":\"s2\",\"objectType\":\"planservice\",\"x\":3}", services.getJSONObject(1));
+		assertEquals("s3", services.getJSONObject(2).getString("objectId"));
+		assertEquals(20, merged.getJSONObject("planCostShares").getInt("copay"));
+		assertEquals(100, merged.getJSONObject("planCostShares").getInt("deductible"));
+	}
+
+	@Test
+	void mergeByIdLeavesTheSourceUntouched() {
+		JSONObject source = new JSONObject(PLAN);
+		merger.mergeById(source, new JSONObject("""
+			{"linkedPlanServices": [{"objectId": "s2", "x": 3}], "planType": null}
+			"""));
+
+		assertJson(PLAN, source);
+	}
+
+	@Test
+	void mergeByIdRemovesNullFieldsAndReplacesOtherValues() {
+		JSONObject merged = merger.mergeById(new JSONObject(PLAN), new JSONObject("""
+			{"planType": null, "tags": ["c"], "linkedPlanServices": [{"noId": true}]}
+			"""));
+
+		assertFalse(merged.has("planType"));
+		assertEquals(new JSONArray("[\"c\"]").toString(), merged.getJSONArray("tags").toString());
+		// items without objectId: the array is replaced, not merged
+		assertEquals(1, merged.getJSONArray("linkedPlanServices").length());
+	}
+
+	/* ----- RFC 7396 merge patch ----- */
+
+	@Test
+	void mergePatchRemovesNullsRecursively() {
+		JSONObject merged = merger.mergePatch(new JSONObject("""
+			{"a": {"b": 1, "c": 2}, "d": [1, 2], "e": "x"}
+			"""), new JSONObject("""
+			{"a": {"b": null, "f": 3}, "d": [3], "e": {"g": null}}
+			"""));
+
+		assertJson("{\"a\": {\"c\": 2, \"f\": 3}, \"d\": [3], \"e\": {}}", merged);
+	}
+
+	@Test
+	void applyDispatchesOnContentType() {
+		String target = "{\"a\": [{\"objectId\": \"1\", \"v\": 1}]}";
+		String body = "{\"a\": [{\"objectId\": \"2\", \"v\": 2}]}";
+
+		// merge patch replaces arrays, the default merge appends unknown ids
+		assertEquals(1, merger.apply(new JSONObject(target), body, JsonMerger.MERGE_PATCH + "; charset=utf-8")
+			.getJSONArray("a").length());
+		assertEquals(2, merger.apply(new JSONObject(target), body, "application/json").getJSONArray("a").length());
+		assertJson("{\"a\": [{\"objectId\": \"1\", \"v\": 1}], \"b\": 1}", merger.apply(new JSONObject(target),
+			"[{\"op\": \"add\", \"path\": \"/b\", \"value\": 1}]", JsonMerger.JSON_PATCH));
+	}
+
+	@Test
+	void contentTypeIsMatchedWithoutCase() {
+		String target = "{\"a\": [{\"objectId\": \"1\", \"v\": 1}]}";
+		String body = "{\"a\": [{\"objectId\": \"2\", \"v\": 2}]}";
+
+		assertEquals(1, merger.apply(new JSONObject(target), body, "Application/Merge-Patch+JSON; Charset=UTF-8")
+			.getJSONArray("a").length());
+		assertJson("{\"a\": [{\"objectId\": \"1\", \"v\": 1}], \"b\": 1}", merger.apply(new JSONObject(target),
+			"[{\"op\": \"add\", \"path\": \"/b\", \"value\": 1}]", "APPLICATION/JSON-PATCH+JSON"));
+		// neither a wildcard nor a malformed value selects a patch format
+		assertEquals(2, merger.apply(new JSONObject(target), body, "*/*").getJSONArray("a").length());
+		assertEquals(2, merger.apply(new JSONObject(target), body, "not a type").getJSONArray("a").length());
+	}
+
+	/* ----- RFC 6902 JSON Patch ----- */
+
+	@Test
+	void addToObjectsAndArrays() {
+		String doc = "{\"a\": {}, \"arr\": [1, 2, 3]}";
+
+		assertJson("{\"a\": {\"b\": 1}, \"arr\": [1, 2, 3]}",
+			patch(doc, "[{\"op\": \"add\", \"path\": \"/a/b\", \"value\": 1}]"));
+		assertJson("{\"a\": {}, \"arr\": [1, 9, 2, 3]}",
+			patch(doc, "[{\"op\": \"add\", \"path\": \"/arr/1\", \"value\": 9}]"));
+		assertJson("{\"a\": {}, \"arr\": [1, 2, 3, 9]}",
+			patch(doc, "[{\"op\": \"add\", \"path\": \"/arr/3\", \"value\": 9}]"));
+	}
+
+	@Test
+	void dashAppendsToAnArray() {
+		assertJson("{\"arr\": [1, 2, 3, {\"x\": 1}]}",
+			patch("{\"arr\": [1, 2, 3]}", "[{\"op\": \"add\", \"path\": \"/arr/-\", \"value\": {\"x\": 1}}]"));
+	}
+
+	@Test
+	void removeAndReplace() {
+		String doc = "{\"a\": 1, \"b\": 2, \"arr\": [1, 2, 3]}";
+
+		assertJson("{\"b\": 2, \"arr\": [2, 3]}",
+			patch(doc, "[{\"op\": \"remove\", \"path\": \"/a\"}, {\"op\": \"remove\", \"path\": \"/arr/0\"}]"));
+		assertJson("{\"a\": 1, \"b\": 5, \"arr\": [1, 7, 3]}",
+			patch(doc, "[{\"op\": \"replace\", \"path\": \"/b\", \"value\": 5},"
+				+ " {\"op\": \"replace\", \"path\": \"/arr/1\", \"value\": 7}]"));
+	}
+
+	@Test
+	void moveAndCopy() {
+		String doc = "{\"a\": {\"b\": 1}, \"c\": {}}";
+
+		assertJson("{\"a\": {}, \"c\": {\"b\": 1}}",
+			patch(doc, "[{\"op\": \"move\", \"from\": \"/a/b\", \"path\": \"/c/b\"}]"));
+		// the copy is independent of its source
+		assertJson("{\"a\": {\"b\": 1}, \"c\": {}, \"d\": {\"b\": 2}}",
+			patch(doc, "[{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/d\"},"
+				+ " {\"op\": \"replace\", \"path\": \"/d/b\", \"value\": 2}]"));
+	}
+
+	@Test
+	void testOperation() {
+		String doc = "{\"a\": {\"b\": [1, \"x\"]}, \"n\": 3}";
+
+		assertJson(doc, patch(doc, "[{\"op\": \"test\", \"path\": \"/a\", \"value\": {\"b\": [1, \"x\"]}},"
+			+ " {\"op\": \"test\", \"path\": \"/n\", \"value\": 3}]"));
+		assertPatchFails(doc, "[{\"op\": \"test\", \"path\": \"/n\", \"value\": 4}]", "Test failed at /n");
+	}
+
+	@Test
+	void pointerEscapes() {
+		String doc = "{\"a/b\": 1, \"~c\": 2, \"~1\": 3}";
+
+		assertJson("{\"a/b\": 9, \"~1\": 3}", patch(doc,
+			"[{\"op\": \"replace\", \"path\": \"/a~1b\", \"value\": 9}, {\"op\": \"remove\", \"path\": \"/~0c\"}]"));
+		// ~01 is "~1", not "/"
+		assertJson("{\"a/b\": 1, \"~c\": 2}", patch(doc, "[{\"op\": \"remove\", \"path\": \"/~01\"}]"));
+	}
+
+	@Test
+	void failedPatchLeavesTheTargetUntouched() {
+		JSONObject target = new JSONObject("{\"a\": 1, \"arr\": [1]}");
+		assertThrows(PatchException.class, () -> merger.jsonPatch(target, new JSONArray(
+			"[{\"op\": \"add\", \"path\": \"/arr/-\", \"value\": 2}, {\"op\": \"remove\", \"path\": \"/missing\"}]")));
+
+		assertJson("{\"a\": 1, \"arr\": [1]}", target);
+	}
+
+	@Test
+	void errorPaths() {
+		String doc = "{\"a\": {\"b\": 1}, \"arr\": [1, 2]}";
+
+		assertPatchFails(doc, "[{\"op\": \"remove\", \"path\": \"/missing\"}]", "No value at /missing");
+		assertPatchFails(doc, "[{\"op\": \"replace\", \"path\": \"/missing\", \"value\": 1}]", "No value at /missing");
+		assertPatchFails(doc, "[{\"op\": \"add\", \"path\": \"/x/y\", \"value\": 1}]", "No value at /x/y");
+		assertPatchFails(doc, "[{\"op\": \"add\", \"path\": \"/a/b/c\", \"value\": 1}]", "not a container");
+		assertPatchFails(doc, "[{\"op\": \"add\", \"path\": \"/arr/3\", \"value\": 1}]", "out of bounds");
+		assertPatchFails(doc, "[{\"op\": \"remove\", \"path\": \"/arr/2\"}]", "out of bounds");
+		assertPatchFails(doc, "[{\"op\": \"remove\", \"path\": \"/arr/01\"}]", "Invalid array index");
+		assertPatchFails(doc, "[{\"op\": \"remove\", \"path\": \"/arr/-\"}]", "Invalid array index");
+		assertPatchFails(doc, "[{\"op\": \"move\", \"from\": \"/a\", \"path\": \"/a/c\"}]", "into its own child");
+		assertPatchFails(doc, "[{\"op\": \"copy\", \"from\": \"/nope\", \"path\": \"/c\"}]", "No value at /nope");
+		assertPatchFails(doc, "[{\"op\": \"remove\", \"path\": \"a\"}]", "Invalid JSON pointer");
+		assertPatchFails(doc, "[{\"op\": \"remove\", \"path\": \"\"}]", "whole document");
+		assertPatchFails(doc, "[{\"op\": \"add\", \"path\": \"\", \"value\": {}}]", "whole document");
+		assertPatchFails(doc, "[{\"op\": \"frobnicate\", \"path\": \"/a\"}]", "Unknown op");
+	}
+}
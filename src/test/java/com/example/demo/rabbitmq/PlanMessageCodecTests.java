@@ -0,0 +1,87 @@
+package com.example.demo.rabbitmq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class PlanMessageCodecTests {
+
+	private static final String PLAN = "{\"objectId\":\"p1\",\"objectType\":\"plan\",\"planType\":\"inNetwork\","
+		+ "\"planCostShares\":{\"objectId\":\"c1\",\"objectType\":\"membercostshare\",\"copay\":10}}";
+	private static final String CHANGES = "{\"index\":[\"c1\"],\"delete\":[{\"id\":\"s1\",\"parent\":\"p1\"}]}";
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private void assertEvent(PlanMessageCodec.Event event, String operation, long version, long timestamp,
+							 String data, String changes) throws Exception {
+		assertEquals(operation, event.operation());
+		assertEquals("p1", event.objectId());
+		assertEquals(version, event.version());
+		assertEquals(timestamp, event.timestamp());
+		assertEquals(data == null ? null : mapper.readTree(data), event.data());
+		assertEquals(changes == null ? null : mapper.readTree(changes), event.changes());
+	}
+
+	@Test
+	void smileRoundTrip() throws Exception {
+		PlanMessageCodec codec = new PlanMessageCodec("smile", 1_000_000);
+		Message message = codec.encode("update", "p1", 7, 123, PLAN, CHANGES);
+
+		MessageProperties properties = message.getMessageProperties();
+		assertEquals(PlanMessageCodec.SMILE, properties.getContentType());
+		assertNull(properties.getContentEncoding());
+		assertEquals("update", properties.getHeader(PlanMessageCodec.OPERATION));
+		assertEquals("p1", properties.getHeader(PlanMessageCodec.OBJECT_ID));
+		assertEvent(codec.decode(message), "update", 7, 123, PLAN, CHANGES);
+	}
+
+	@Test
+	void largeSmileBodiesAreGzipped() throws Exception {
+		PlanMessageCodec codec = new PlanMessageCodec("smile", 16);
+		Message message = codec.encode("create", "p1", 1, 5, PLAN, null);
+
+		assertEquals(PlanMessageCodec.GZIP, message.getMessageProperties().getContentEncoding());
+		assertEvent(codec.decode(message), "create", 1, 5, PLAN, null);
+	}
+
+	@Test
+	void smileDeleteHasNoBody() throws Exception {
+		PlanMessageCodec codec = new PlanMessageCodec("smile", 16);
+		Message message = codec.encode("delete", "p1", 3, 9, null, null);
+
+		assertEquals(0, message.getBody().length);
+		assertEvent(codec.decode(message), "delete", 3, 9, null, null);
+	}
+
+	@Test
+	void jsonFormatIsNeverCompressed() throws Exception {
+		PlanMessageCodec codec = new PlanMessageCodec("json", 16);
+		Message update = codec.encode("update", "p1", 4, 11, PLAN, CHANGES);
+
+		assertEquals(MessageProperties.CONTENT_TYPE_JSON, update.getMessageProperties().getContentType());
+		assertNull(update.getMessageProperties().getContentEncoding());
+		assertEvent(codec.decode(update), "update", 4, 11, PLAN, CHANGES);
+
+		assertEvent(codec.decode(codec.encode("delete", "p1", 5, 12, null, null)), "delete", 5, 12, null, null);
+	}
+
+	@Test
+	void decodesLegacyEnvelopesWithoutHeaders() throws Exception {
+		PlanMessageCodec codec = new PlanMessageCodec("smile", 16);
+		Message message = codec.legacy(codec.envelope("update", 77, PLAN, null));
+
+		// version unknown before headers existed
+		assertEvent(codec.decode(message), "update", 0, 77, PLAN, null);
+	}
+
+	@Test
+	void rejectsUnknownFormat() {
+		assertThrows(IllegalArgumentException.class, () -> new PlanMessageCodec("xml", 16));
+	}
+}
@@ -0,0 +1,102 @@
+package com.example.demo.security;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+
+class GoogleTokenVerifierTests {
+
+	private static final String ISSUER = "https://accounts.google.com";
+	private static final String CLIENT_ID = "954183420749-55u8nr8817bcae6ogpogq5etek3q031b.apps.googleusercontent.com";
+
+	private static KeyPair keyPair() throws Exception {
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+		gen.initialize(2048);
+		return gen.generateKeyPair();
+	}
+
+	private static String bearer(String kid, KeyPair keys, Instant expiresAt) {
+		return "Bearer " + JWT.create()
+			.withKeyId(kid)
+			.withIssuer(ISSUER)
+			.withAudience(CLIENT_ID)
+			.withExpiresAt(expiresAt)
+			.sign(Algorithm.RSA256((RSAPublicKey) keys.getPublic(), (RSAPrivateKey) keys.getPrivate()));
+	}
+
+	@Test
+	void acceptsTokenSignedByInMemoryKey() throws Exception {
+		KeyPair keys = keyPair();
+		GoogleTokenVerifier verifier = GoogleTokenVerifier.withKeys(Map.of("k1", (RSAPublicKey) keys.getPublic()));
+
+		assertDoesNotThrow(() -> verifier.verifyToken(bearer("k1", keys, Instant.now().plusSeconds(300))));
+	}
+
+	@Test
+	void rejectsExpiredAndForeignTokens() throws Exception {
+		KeyPair keys = keyPair();
+		GoogleTokenVerifier verifier = GoogleTokenVerifier.withKeys(Map.of("k1", (RSAPublicKey) keys.getPublic()));
+
+		assertThrows(JWTVerificationException.class,
+			() -> verifier.verifyToken(bearer("k1", keys, Instant.now().minusSeconds(300))));
+		assertThrows(JWTVerificationException.class,
+			() -> verifier.verifyToken(bearer("k1", keyPair(), Instant.now().plusSeconds(300))));
+		assertThrows(JWTVerificationException.class,
+			() -> verifier.verifyToken("Basic abc"));
+	}
+
+	@Test
+	void cachesKeysAndVerifiedTokens() throws Exception {
+		KeyPair keys = keyPair();
+		AtomicInteger loads = new AtomicInteger();
+		GoogleTokenVerifier verifier = new GoogleTokenVerifier(() -> {
+			loads.incrementAndGet();
+			return Map.of("k1", (RSAPublicKey) keys.getPublic());
+		}, 0, 60, 100);
+
+		String token = bearer("k1", keys, Instant.now().plusSeconds(300));
+		verifier.verifyToken(token);
+		verifier.verifyToken(token);
+		verifier.verifyToken(bearer("k1", keys, Instant.now().plusSeconds(600)));
+		assertEquals(1, loads.get());
+
+		// unknown kid reloads at most once per min-refresh interval
+		assertThrows(JWTVerificationException.class,
+			() -> verifier.verifyToken(bearer("k2", keys, Instant.now().plusSeconds(300))));
+		assertThrows(JWTVerificationException.class,
+			() -> verifier.verifyToken(bearer("k3", keys, Instant.now().plusSeconds(300))));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void failedLoadIsRetriedOnTheNextRequest() throws Exception {
+		KeyPair keys = keyPair();
+		AtomicInteger loads = new AtomicInteger();
+		GoogleTokenVerifier verifier = new GoogleTokenVerifier(() -> {
+			if (loads.incrementAndGet() == 1) {
+				throw new IllegalStateException("JWKS endpoint unavailable");
+			}
+			return Map.of("k1", (RSAPublicKey) keys.getPublic());
+		}, 0, 60, 100);
+
+		String token = bearer("k1", keys, Instant.now().plusSeconds(300));
+		assertThrows(IllegalStateException.class, () -> verifier.verifyToken(token));
+		// not held back by the min-refresh interval
+		assertDoesNotThrow(() -> verifier.verifyToken(token));
+		assertEquals(2, loads.get());
+	}
+}
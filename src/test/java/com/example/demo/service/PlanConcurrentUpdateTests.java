@@ -0,0 +1,108 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.demo.model.PlanDocument;
+
+/**
+ * Many writers incrementing the same plan through saveIfMatch: every
+ * increment must survive, a lost race only costs a retry.
+ */
+@SpringBootTest
+class PlanConcurrentUpdateTests {
+
+	private static final int WRITERS = 16;
+	private static final int INCREMENTS = 25;
+
+	@Autowired
+	private PlanService planService;
+
+	private String objectId;
+
+	@BeforeEach
+	void createPlan() {
+		objectId = "cas-" + UUID.randomUUID();
+		planService.save(PlanDocument.parse("{\"objectId\":\"" + objectId + "\",\"objectType\":\"plan\","
+			+ "\"_org\":\"example.com\",\"planType\":\"inNetwork\",\"creationDate\":\"12-12-2017\","
+			+ "\"planCostShares\":{\"objectId\":\"" + objectId + "-pcs\",\"objectType\":\"membercostshare\","
+			+ "\"_org\":\"example.com\",\"deductible\":0,\"copay\":0},\"linkedPlanServices\":[]}"), true);
+	}
+
+	@AfterEach
+	void deletePlan() {
+		planService.delete(objectId);
+	}
+
+	@Test
+	void concurrentUpdatesAreNeverLost() throws Exception {
+		AtomicInteger conflicts = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(WRITERS);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int w = 0; w < WRITERS; w++) {
+				writers.add(pool.submit(() -> {
+					start.await();
+					for (int i = 0; i < INCREMENTS; i++) {
+						while (!increment()) {
+							conflicts.incrementAndGet();
+						}
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> writer : writers) {
+				writer.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		JSONObject stored = new JSONObject(planService.getWithETag(objectId).json());
+		assertEquals(WRITERS * INCREMENTS, stored.getJSONObject("planCostShares").getInt("copay"),
+			"lost updates (" + conflicts.get() + " conflicts retried)");
+	}
+
+	@Test
+	void staleETagIsRejected() {
+		PlanService.StoredPlan stored = planService.getWithETag(objectId);
+		PlanDocument previous = PlanDocument.parse(stored.json());
+		assertNotNull(planService.saveIfMatch(withCopay(stored, 1), previous, stored.eTag()));
+
+		assertNull(planService.saveIfMatch(withCopay(stored, 2), previous, stored.eTag()));
+		assertEquals(1, new JSONObject(planService.get(objectId)).getJSONObject("planCostShares").getInt("copay"));
+	}
+
+	// read, add one, write back if unchanged
+	private boolean increment() {
+		PlanService.StoredPlan stored = planService.getWithETag(objectId);
+		int copay = new JSONObject(stored.json()).getJSONObject("planCostShares").getInt("copay");
+		return planService.saveIfMatch(withCopay(stored, copay + 1),
+			PlanDocument.parse(stored.json()), stored.eTag()) != null;
+	}
+
+	private static PlanDocument withCopay(PlanService.StoredPlan stored, int copay) {
+		JSONObject tree = new JSONObject(stored.json());
+		tree.getJSONObject("planCostShares").put("copay", copay);
+		return PlanDocument.of(tree);
+	}
+}
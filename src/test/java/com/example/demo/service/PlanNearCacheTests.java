@@ -0,0 +1,104 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class PlanNearCacheTests {
+
+	private static PlanService.StoredPlan plan(int size) {
+		return new PlanService.StoredPlan("x".repeat(size), "etag");
+	}
+
+	private static void put(PlanNearCache cache, String id, PlanService.StoredPlan plan) {
+		cache.put(id, plan, cache.generation(id));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedBeyondMaxEntries() {
+		PlanNearCache cache = new PlanNearCache(true, 2, Long.MAX_VALUE, 60, "c");
+		put(cache, "a", plan(10));
+		put(cache, "b", plan(10));
+		cache.get("a");
+		put(cache, "c", plan(10));
+
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(1, cache.stats().evictions());
+	}
+
+	@Test
+	void evictsByWeight() {
+		PlanNearCache cache = new PlanNearCache(true, 100, 3000, 60, "c");
+		put(cache, "a", plan(1000));
+		put(cache, "b", plan(1000));
+		put(cache, "c", plan(1000));
+
+		assertNull(cache.get("a"));
+		assertEquals(2, cache.stats().entries());
+		// larger than the whole cache: never stored
+		put(cache, "big", plan(5000));
+		assertNull(cache.get("big"));
+	}
+
+	@Test
+	void doesNotCacheValueReadAcrossAnInvalidation() {
+		PlanNearCache cache = new PlanNearCache(true, 100, Long.MAX_VALUE, 60, "c");
+		long generation = cache.generation("a");
+		cache.invalidate("a");          // e.g. another instance saved while we were reading
+		cache.put("a", plan(10), generation);
+
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	void invalidatingOnePlanDoesNotBlockOthers() {
+		PlanNearCache cache = new PlanNearCache(true, 100, Long.MAX_VALUE, 60, "c");
+		long generation = cache.generation("a");
+		// "b" falls into another stripe: its write must not discard the read of "a"
+		cache.invalidate("b");
+		cache.put("a", plan(10), generation);
+
+		assertNotNull(cache.get("a"));
+	}
+
+	@Test
+	void ownInvalidationMessagesAreSkipped() {
+		PlanNearCache writer = new PlanNearCache(true, 100, Long.MAX_VALUE, 60, "c");
+		PlanNearCache reader = new PlanNearCache(true, 100, Long.MAX_VALUE, 60, "c");
+		put(writer, "a", plan(10));
+		put(reader, "a", plan(10));
+
+		// the writer invalidates directly, then receives its own message like every subscriber
+		writer.invalidate("a");
+		String message = writer.message("a");
+		writer.onMessage(message);
+		reader.onMessage(message);
+
+		assertEquals(1, writer.stats().invalidations());
+		assertEquals(1, reader.stats().invalidations());
+		assertNull(reader.get("a"));
+	}
+
+	@Test
+	void untaggedMessagesAreApplied() {
+		PlanNearCache cache = new PlanNearCache(true, 100, Long.MAX_VALUE, 60, "c");
+		put(cache, "a", plan(10));
+
+		// published by an instance predating the tag
+		cache.onMessage("a");
+
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	void disabledCacheStoresNothing() {
+		PlanNearCache cache = new PlanNearCache(false, 100, Long.MAX_VALUE, 60, "c");
+		put(cache, "a", plan(10));
+
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.stats().misses());
+	}
+}
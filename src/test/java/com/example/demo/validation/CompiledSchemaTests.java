@@ -0,0 +1,83 @@
+package com.example.demo.validation;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.ValidationException;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class CompiledSchemaTests {
+
+	private static final String PLAN = """
+		{
+		  "planCostShares": {"deductible": 2000, "_org": "example.com", "copay": 23,
+		                     "objectId": "1234vxc2324sdf-501", "objectType": "membercostshare"},
+		  "linkedPlanServices": [{
+		    "linkedService": {"_org": "example.com", "objectId": "1234520xvc30asdf-502",
+		                      "objectType": "service", "name": "Yearly physical"},
+		    "planserviceCostShares": {"deductible": 10, "_org": "example.com", "copay": 0,
+		                              "objectId": "1234512xvc1314asdf-501", "objectType": "membercostshare"},
+		    "_org": "example.com", "objectId": "27283xvx9asdff-504", "objectType": "planservice"
+		  }],
+		  "_org": "example.com", "objectId": "12xvxc345ssdsds-508", "objectType": "plan",
+		  "planType": "inNetwork", "creationDate": "12-12-2017"
+		}
+		""";
+
+	private final PlanSchemaValidator validator = new PlanSchemaValidator();
+	private final Schema everit = SchemaLoader.load(validator.rawSchema());
+
+	private void assertSameMessage(JSONObject plan) {
+		ValidationException expected = assertThrows(ValidationException.class, () -> everit.validate(plan));
+		SchemaValidationException actual = assertThrows(SchemaValidationException.class, () -> validator.validate(plan));
+		assertEquals(expected.getMessage(), actual.getMessage());
+		assertEquals(expected.getViolationCount(), actual.getViolationCount());
+	}
+
+	@Test
+	void acceptsValidPlan() {
+		assertDoesNotThrow(() -> validator.validate(new JSONObject(PLAN)));
+	}
+
+	@Test
+	void missingRequiredKey() {
+		JSONObject plan = new JSONObject(PLAN);
+		plan.remove("planType");
+		assertSameMessage(plan);
+	}
+
+	@Test
+	void wrongNestedType() {
+		JSONObject plan = new JSONObject(PLAN);
+		plan.getJSONObject("planCostShares").put("copay", "23");
+		assertSameMessage(plan);
+	}
+
+	@Test
+	void extraneousKey() {
+		JSONObject plan = new JSONObject(PLAN);
+		plan.put("planStatus", "active");
+		assertSameMessage(plan);
+	}
+
+	@Test
+	void severalViolationsAcrossLevels() {
+		JSONObject plan = new JSONObject(PLAN);
+		plan.remove("_org");
+		JSONObject service = plan.getJSONArray("linkedPlanServices").getJSONObject(0);
+		service.getJSONObject("linkedService").remove("name");
+		service.getJSONObject("planserviceCostShares").put("deductible", JSONObject.NULL);
+		assertSameMessage(plan);
+	}
+
+	@Test
+	void wrongContainerType() {
+		JSONObject plan = new JSONObject(PLAN);
+		plan.put("linkedPlanServices", new JSONObject());
+		assertSameMessage(plan);
+	}
+}